@@ -0,0 +1,6 @@
+-- 商品列表键集分页 (GET /product?sort=...) 使用的复合索引
+-- 每个索引以 is_deleted 开头，按 (排序列, id) 排列，分页查询可以直接按索引顺序扫描 LIMIT 条
+
+CREATE INDEX `idx_product_price` ON `product` (`is_deleted`, `price`, `id`);
+CREATE INDEX `idx_product_created_at` ON `product` (`is_deleted`, `created_at`, `id`);
+CREATE INDEX `idx_product_stock` ON `product` (`is_deleted`, `stock_quantity`, `id`);
@@ -0,0 +1,4 @@
+-- 按名称查找未删除商品 (createProduct 的同名检查、批量导入的 name IN (...) 查询) 使用的索引
+-- 不加唯一约束：已软删除的商品可能与现有商品同名
+
+CREATE INDEX `idx_product_name` ON `product` (`name`, `is_deleted`);
@@ -0,0 +1,6 @@
+-- 管理员订单检索 (GET /order/search) 使用的复合索引
+-- 都以 (order_date, order_id) 结尾，筛选后可以按索引顺序倒序扫描，键集分页只读 LIMIT 条
+
+CREATE INDEX `idx_order_date` ON `order_master` (`order_date`, `order_id`);
+CREATE INDEX `idx_order_status_date` ON `order_master` (`order_status`, `order_date`, `order_id`);
+CREATE INDEX `idx_order_customer_date` ON `order_master` (`customer_id`, `order_date`, `order_id`);
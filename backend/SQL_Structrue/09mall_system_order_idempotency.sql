@@ -0,0 +1,13 @@
+-- 下单幂等键 (POST /order 的 Idempotency-Key 请求头)
+-- 与订单在同一个事务中写入：订单提交成功则幂等键一定存在，客户端重试时直接返回原订单
+-- 同一客户的同一个键只能对应一个订单，并发重复提交时后到的事务因主键冲突回滚
+
+CREATE TABLE `order_idempotency` (
+  `customer_id` int NOT NULL COMMENT '客户ID',
+  `idempotency_key` varchar(64) NOT NULL COMMENT '客户端生成的幂等键',
+  `order_id` bigint NOT NULL COMMENT '对应的订单ID',
+  `created_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间 (可按此清理过期记录)',
+  PRIMARY KEY (`customer_id`, `idempotency_key`),
+  KEY `idx_idempotency_created` (`created_at`),
+  CONSTRAINT `order_idempotency_ibfk_1` FOREIGN KEY (`order_id`) REFERENCES `order_master` (`order_id`) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
@@ -0,0 +1,20 @@
+-- 邮件发件箱 (transactional outbox)
+-- 订单确认邮件与订单在同一个事务中写入，由后台 EmailOutboxDispatcher 批量领取并发送：
+-- 订单提交则邮件一定会发出 (至少一次)，进程崩溃也不会丢失
+-- status: PENDING 待发送 / SENDING 已领取 (领取超时后可被重新领取) / SENT 已发送 / FAILED 重试次数用尽
+
+CREATE TABLE `email_outbox` (
+  `id` bigint NOT NULL AUTO_INCREMENT COMMENT '邮件ID (主键)',
+  `recipient` varchar(100) NOT NULL COMMENT '收件人邮箱',
+  `subject` varchar(255) NOT NULL COMMENT '邮件主题',
+  `body` text NOT NULL COMMENT '邮件正文 (纯文本)',
+  `status` varchar(20) NOT NULL DEFAULT 'PENDING' COMMENT '发送状态 (PENDING, SENDING, SENT, FAILED)',
+  `attempts` int NOT NULL DEFAULT 0 COMMENT '已失败的发送次数',
+  `next_attempt_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '最早可发送时间 (失败后按退避延后)',
+  `claimed_at` datetime DEFAULT NULL COMMENT '领取时间',
+  `last_error` varchar(500) DEFAULT NULL COMMENT '最近一次发送失败的原因',
+  `created_at` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  `sent_at` datetime DEFAULT NULL COMMENT '发送成功时间',
+  PRIMARY KEY (`id`),
+  KEY `idx_outbox_status_next` (`status`, `next_attempt_at`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci COMMENT='邮件发件箱';
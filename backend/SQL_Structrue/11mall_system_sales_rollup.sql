@@ -0,0 +1,19 @@
+-- 销售统计汇总表：按小时 + 订单状态汇总订单数和金额
+-- 由 OrderDAO 在下单、修改订单状态、删除订单的事务中增量维护；统计接口只读本表，
+-- 查询成本取决于统计的时间范围而不是订单总数
+-- 订单状态统一存为大写 (历史数据中存在大小写混用的状态)
+-- 数据不一致时可调用 POST /api/stats/rollup/rebuild 从 order_master 全量重建
+
+CREATE TABLE `sales_rollup` (
+  `bucket_hour` datetime NOT NULL COMMENT '小时桶 (下单时间截断到整点)',
+  `order_status` varchar(50) NOT NULL COMMENT '订单状态 (大写)',
+  `order_count` int NOT NULL DEFAULT 0 COMMENT '订单数',
+  `sales_amount` decimal(14,2) NOT NULL DEFAULT 0.00 COMMENT '订单金额合计',
+  PRIMARY KEY (`bucket_hour`, `order_status`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci COMMENT='销售统计汇总表 (按小时)';
+
+-- 回填已有订单
+INSERT INTO `sales_rollup` (`bucket_hour`, `order_status`, `order_count`, `sales_amount`)
+SELECT DATE_FORMAT(`order_date`, '%Y-%m-%d %H:00:00'), UPPER(`order_status`), COUNT(*), SUM(`total_amount`)
+FROM `order_master`
+GROUP BY DATE_FORMAT(`order_date`, '%Y-%m-%d %H:00:00'), UPPER(`order_status`);
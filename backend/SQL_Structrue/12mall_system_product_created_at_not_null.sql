@@ -0,0 +1,5 @@
+-- 商品列表按 created_at 键集分页时，游标保存上一页最后一条的 created_at，
+-- 该列为 NULL 时无法编码游标，(created_at, id) 比较条件也会跳过这些行；补齐历史数据后改为 NOT NULL
+
+UPDATE `product` SET `created_at` = COALESCE(`updated_at`, CURRENT_TIMESTAMP) WHERE `created_at` IS NULL;
+ALTER TABLE `product` MODIFY `created_at` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP;
@@ -0,0 +1,313 @@
+package com.mall.cache;
+
+import com.google.gson.Gson;
+import com.mall.dao.ProductDAO;
+import com.mall.model.Product;
+import com.mall.util.AppConfig;
+import com.mall.util.Metrics;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 商品目录响应快照
+ * 预先把 GET /product 和热门 GET /product/{id} 的响应序列化为 UTF-8 字节 (及 gzip 版本)，
+ * 请求时直接写入输出流，不再构建 Map、不再执行 gson.toJson。
+ * 快照带有生成时的目录版本号，版本不一致即视为过期，由后台线程重建，期间请求走普通序列化路径。
+ * 每笔订单都会调整库存，列表快照对"只有库存变化"放宽：最多延迟 CATALOG_SNAPSHOT_STOCK_REFRESH_MS 再重建，
+ * 期间继续使用旧快照 (商品列表的 ETag 也沿用快照的版本号，与响应内容一致)。
+ */
+public class CatalogSnapshot {
+
+    // 保留快照的热门商品详情条数 (LRU 淘汰)
+    private static final int MAX_DETAILS = AppConfig.getInt("CATALOG_SNAPSHOT_MAX_DETAILS", 200);
+    // 只有库存变化时，列表快照最多沿用的时间 (毫秒)
+    private static final long STOCK_REFRESH = AppConfig.getLong("CATALOG_SNAPSHOT_STOCK_REFRESH_MS", 5000);
+
+    // 构造函数用到上面的配置，必须在配置之后创建
+    private static final CatalogSnapshot INSTANCE = new CatalogSnapshot();
+
+    // 一份序列化好的响应体
+    private static class Snapshot {
+        final Validator validator;
+        final byte[] json;
+        final byte[] gzip;
+        final long builtAt = System.currentTimeMillis();
+
+        Snapshot(Validator validator, byte[] json, byte[] gzip) {
+            this.validator = validator;
+            this.json = json;
+            this.gzip = gzip;
+        }
+    }
+
+    // 生成快照前读取的目录版本号 (读取期间若目录又变化，快照版本落后，不会被当作最新)
+    private static class Validator {
+        final long version;
+        final long contentVersion;
+        final long lastModified;
+
+        Validator(long version, long contentVersion, long lastModified) {
+            this.version = version;
+            this.contentVersion = contentVersion;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final ProductCatalogCache cache = ProductCatalogCache.getInstance();
+    private final ProductDAO productDAO = new ProductDAO();
+    private final Gson gson = new Gson();
+
+    private volatile Snapshot list;
+    private final LinkedHashMap<Integer, Snapshot> details = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Snapshot> eldest) {
+            return size() > MAX_DETAILS;
+        }
+    };
+
+    // 单线程重建，多次变化合并为一次重建
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "catalog-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean rebuildPending = new AtomicBoolean();
+    private final AtomicBoolean delayedRebuildPending = new AtomicBoolean();
+
+    private CatalogSnapshot() {
+        cache.addChangeListener(this::onCatalogChanged);
+    }
+
+    public static CatalogSnapshot getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 写出商品列表快照
+     * @return 快照可用并已写出时为 true；否则返回 false，由调用方走普通路径
+     */
+    public boolean writeList(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Snapshot snapshot = list;
+        if (!isListUsable(snapshot)) {
+            Metrics.increment("catalogSnapshot.list.misses");
+            requestRebuild();
+            return false;
+        }
+        Metrics.increment("catalogSnapshot.list.hits");
+        write(snapshot, request, response);
+        return true;
+    }
+
+    /**
+     * 写出单个商品快照，没有可用快照时返回 false
+     */
+    public boolean writeDetail(int productId, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Snapshot snapshot;
+        synchronized (details) {
+            snapshot = details.get(productId);
+        }
+        if (snapshot == null || snapshot.validator.version != cache.getVersion()) {
+            Metrics.increment("catalogSnapshot.detail.misses");
+            return false;
+        }
+        Metrics.increment("catalogSnapshot.detail.hits");
+        write(snapshot, request, response);
+        return true;
+    }
+
+    /**
+     * GET /product (全部商品) 响应对应的目录版本号和修改时间：列表快照可用时取快照的，否则取当前的
+     * @return {版本号, 修改时间}
+     */
+    public long[] getListValidator() {
+        Snapshot snapshot = list;
+        if (isListUsable(snapshot)) {
+            return new long[]{snapshot.validator.version, snapshot.validator.lastModified};
+        }
+        return new long[]{cache.getVersion(), cache.getLastModified()};
+    }
+
+    /**
+     * 序列化单个商品并写出，同时保存为快照供后续请求复用
+     * @param version 读取商品之前的目录版本号
+     */
+    public void writeAndStoreDetail(int productId, long version, Product product,
+                                    HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Snapshot snapshot = build(new Validator(version, cache.getContentVersion(), cache.getLastModified()), product);
+        synchronized (details) {
+            details.put(productId, snapshot);
+        }
+        write(snapshot, request, response);
+    }
+
+    /**
+     * 请求后台立即重建快照
+     */
+    public void requestRebuild() {
+        if (rebuildPending.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::rebuild);
+            } catch (RuntimeException e) {
+                // 应用停止后线程池已关闭
+                rebuildPending.set(false);
+            }
+        }
+    }
+
+    /**
+     * 目录变化时由 ProductCatalogCache 回调：只有库存变化时延迟重建，合并一段时间内的多笔订单
+     */
+    private void onCatalogChanged() {
+        Snapshot snapshot = list;
+        if (snapshot == null || snapshot.validator.contentVersion != cache.getContentVersion()) {
+            requestRebuild();
+            return;
+        }
+        if (delayedRebuildPending.compareAndSet(false, true)) {
+            long delay = Math.max(0, snapshot.builtAt + STOCK_REFRESH - System.currentTimeMillis());
+            try {
+                executor.schedule(() -> {
+                    delayedRebuildPending.set(false);
+                    requestRebuild();
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                delayedRebuildPending.set(false);
+            }
+        }
+    }
+
+    // 版本一致，或只有库存变化且快照生成不超过 STOCK_REFRESH
+    private boolean isListUsable(Snapshot snapshot) {
+        if (snapshot == null) {
+            return false;
+        }
+        if (snapshot.validator.version == cache.getVersion()) {
+            return true;
+        }
+        return snapshot.validator.contentVersion == cache.getContentVersion()
+                && System.currentTimeMillis() - snapshot.builtAt < STOCK_REFRESH;
+    }
+
+    /**
+     * 快照统计信息，供管理员接口查看
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        Snapshot snapshot = list;
+        stats.put("listVersion", snapshot == null ? null : snapshot.validator.version);
+        stats.put("listBytes", snapshot == null ? 0 : snapshot.json.length);
+        stats.put("listGzipBytes", snapshot == null ? 0 : snapshot.gzip.length);
+        synchronized (details) {
+            stats.put("detailCount", details.size());
+        }
+        stats.put("listHits", Metrics.get("catalogSnapshot.list.hits"));
+        stats.put("listMisses", Metrics.get("catalogSnapshot.list.misses"));
+        stats.put("detailHits", Metrics.get("catalogSnapshot.detail.hits"));
+        stats.put("detailMisses", Metrics.get("catalogSnapshot.detail.misses"));
+        stats.put("rebuilds", Metrics.get("catalogSnapshot.rebuilds"));
+        return stats;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 在后台线程重建列表和已有的热门商品快照
+    private void rebuild() {
+        rebuildPending.set(false);
+        // 先取版本号再读数据：读取期间若目录又变化，快照版本落后，不会被使用，等待下一次重建
+        // 数据经 ProductDAO 的商品缓存读取，缓存未命中时从主库加载，不会把从库的旧数据标记为新版本
+        Validator validator = new Validator(cache.getVersion(), cache.getContentVersion(), cache.getLastModified());
+        try {
+            list = build(validator, productDAO.getCatalog());
+
+            List<Integer> productIds;
+            synchronized (details) {
+                productIds = new ArrayList<>(details.keySet());
+            }
+            for (Integer productId : productIds) {
+                Product product = productDAO.getCatalogProduct(productId);
+                synchronized (details) {
+                    if (product == null) {
+                        details.remove(productId);
+                    } else if (details.containsKey(productId)) {
+                        details.put(productId, build(validator, product));
+                    }
+                }
+            }
+            Metrics.increment("catalogSnapshot.rebuilds");
+        } catch (SQLException | IOException e) {
+            System.err.println("商品目录快照重建失败: " + e.getMessage());
+        }
+    }
+
+    private Snapshot build(Validator validator, Object data) throws IOException {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("success", true);
+        body.put("data", data);
+        byte[] json = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+            gzip.write(json);
+        }
+        return new Snapshot(validator, json, buffer.toByteArray());
+    }
+
+    private void write(Snapshot snapshot, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        byte[] body = snapshot.json;
+        if (acceptsGzip(request)) {
+            body = snapshot.gzip;
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        response.addHeader("Vary", "Accept-Encoding");
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/json;charset=UTF-8");
+        response.setContentLength(body.length);
+        OutputStream out = response.getOutputStream();
+        out.write(body);
+    }
+
+    // Accept-Encoding 中包含 gzip 且未显式设置 q=0
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.trim().split(";");
+            String coding = tokens[0].trim();
+            if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < tokens.length; i++) {
+                String param = tokens[i].trim().replace(" ", "");
+                if (param.matches("q=0(\\.0*)?")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,173 @@
+package com.mall.cache;
+
+import com.mall.util.AppConfig;
+import com.mall.util.Metrics;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 订单聚合缓存 (进程内)
+ * 按订单ID缓存订单详情 (主表 + 客户名 + 订单项) 和订单归属 (订单ID -> 客户ID)，
+ * 由 OrderDAO 的 updateOrderStatus / deleteOrder 失效。订单归属不会变化，只在删除时移除。
+ * 缓存中的订单 Map 是共享的，get 返回浅拷贝，订单项列表只读。
+ * 加载期间该订单被修改时结果不缓存；只比较同一订单，其他订单的修改不影响加载结果的缓存。
+ */
+public class OrderCache {
+
+    // 订单详情缓存的最大条数 (LRU 淘汰)
+    private static final int MAX_ITEMS = AppConfig.getInt("ORDER_CACHE_MAX_ITEMS", 2000);
+    // 订单归属缓存的最大条数 (每条只有两个整数)
+    private static final int MAX_OWNERS = AppConfig.getInt("ORDER_OWNER_CACHE_MAX_ITEMS", 50000);
+    // 订单详情兜底过期时间 (毫秒)，用于覆盖其他实例修改订单或读从库延迟的情况
+    private static final long TTL = AppConfig.getLong("ORDER_CACHE_TTL_MS", 60000);
+
+    private static final OrderCache INSTANCE = new OrderCache();
+
+    /**
+     * 缓存未命中时的加载函数，加载失败抛出 SQLException，失败结果和不存在的结果都不会被缓存
+     */
+    public interface Loader<T> {
+        T load() throws SQLException;
+    }
+
+    private static class Entry {
+        final Map<String, Object> order;
+        final long loadedAt;
+
+        Entry(Map<String, Object> order, long loadedAt) {
+            this.order = order;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    // 正在加载的订单：订单ID -> 本次加载的令牌 (由 this 保护)
+    // 失效时移除令牌，加载完成时令牌已不在说明期间该订单有写入，结果丢弃不缓存
+    private final Map<Integer, Object> detailLoads = new HashMap<>();
+    private final Map<Integer, Object> ownerLoads = new HashMap<>();
+    private final LinkedHashMap<Integer, Entry> orders = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+            return size() > MAX_ITEMS;
+        }
+    };
+    private final LinkedHashMap<Integer, Integer> owners = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Integer> eldest) {
+            return size() > MAX_OWNERS;
+        }
+    };
+
+    private OrderCache() {
+        Metrics.registerGauge("orderCache.orders", this::size);
+    }
+
+    public static OrderCache getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized int size() {
+        return orders.size();
+    }
+
+    /**
+     * 获取订单详情，不存在返回 null
+     */
+    public Map<String, Object> get(int orderId, Loader<Map<String, Object>> loader) throws SQLException {
+        Object token = new Object();
+        synchronized (this) {
+            Entry entry = orders.get(orderId);
+            if (entry != null && System.currentTimeMillis() - entry.loadedAt < TTL) {
+                Metrics.increment("orderCache.hits");
+                return new HashMap<>(entry.order);
+            }
+            detailLoads.put(orderId, token);
+        }
+        Metrics.increment("orderCache.misses");
+
+        try {
+            Map<String, Object> order = loader.load();
+            if (order == null) {
+                return null;
+            }
+            Map<String, Object> cached = new HashMap<>(order);
+            Object items = cached.get("items");
+            if (items instanceof List) {
+                cached.put("items", Collections.unmodifiableList((List<?>) items));
+            }
+            synchronized (this) {
+                if (detailLoads.get(orderId) == token) {
+                    orders.put(orderId, new Entry(cached, System.currentTimeMillis()));
+                    owners.put(orderId, (Integer) cached.get("customerId"));
+                }
+            }
+            return new HashMap<>(cached);
+        } finally {
+            synchronized (this) {
+                detailLoads.remove(orderId, token);
+            }
+        }
+    }
+
+    /**
+     * 获取订单所属的客户ID，订单不存在返回 null
+     */
+    public Integer getOwner(int orderId, Loader<Integer> loader) throws SQLException {
+        Object token = new Object();
+        synchronized (this) {
+            Integer owner = owners.get(orderId);
+            if (owner != null) {
+                Metrics.increment("orderCache.owner.hits");
+                return owner;
+            }
+            ownerLoads.put(orderId, token);
+        }
+        Metrics.increment("orderCache.owner.misses");
+
+        try {
+            Integer owner = loader.load();
+            if (owner != null) {
+                synchronized (this) {
+                    // 期间订单可能被删除，不缓存
+                    if (ownerLoads.get(orderId) == token) {
+                        owners.put(orderId, owner);
+                    }
+                }
+            }
+            return owner;
+        } finally {
+            synchronized (this) {
+                ownerLoads.remove(orderId, token);
+            }
+        }
+    }
+
+    /**
+     * 新订单已提交：记录归属 (详情在首次查看时加载)
+     */
+    public synchronized void putOwner(int orderId, int customerId) {
+        owners.put(orderId, customerId);
+    }
+
+    /**
+     * 订单状态等被修改：移除详情，保留归属
+     */
+    public synchronized void invalidate(int orderId) {
+        detailLoads.remove(orderId);
+        orders.remove(orderId);
+    }
+
+    /**
+     * 订单被删除：移除详情和归属
+     */
+    public synchronized void remove(int orderId) {
+        detailLoads.remove(orderId);
+        ownerLoads.remove(orderId);
+        orders.remove(orderId);
+        owners.remove(orderId);
+    }
+}
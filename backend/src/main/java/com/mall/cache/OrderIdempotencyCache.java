@@ -0,0 +1,67 @@
+package com.mall.cache;
+
+import com.mall.util.AppConfig;
+import com.mall.util.Metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 下单幂等键缓存 (进程内 LRU)：(客户ID, Idempotency-Key) -> 订单ID
+ * 只是 order_idempotency 表的前置缓存，未命中时仍需查表；容量由 ORDER_IDEMPOTENCY_CACHE_SIZE 控制
+ */
+public class OrderIdempotencyCache {
+
+    private static final int MAX_ENTRIES = AppConfig.getInt("ORDER_IDEMPOTENCY_CACHE_SIZE", 10000);
+
+    private static final OrderIdempotencyCache INSTANCE = new OrderIdempotencyCache();
+
+    private final LinkedHashMap<String, Integer> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private OrderIdempotencyCache() {
+        Metrics.registerGauge("orderIdempotency.cacheSize", this::size);
+    }
+
+    public static OrderIdempotencyCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return 该幂等键已创建的订单ID，未缓存返回 null
+     */
+    public Integer get(int customerId, String key) {
+        synchronized (entries) {
+            return entries.get(cacheKey(customerId, key));
+        }
+    }
+
+    public void put(int customerId, String key, int orderId) {
+        synchronized (entries) {
+            entries.put(cacheKey(customerId, key), orderId);
+        }
+    }
+
+    /**
+     * 订单被删除时移除指向它的幂等键 (表中的记录由外键级联删除)
+     */
+    public void removeOrder(int orderId) {
+        synchronized (entries) {
+            entries.values().removeIf(cached -> cached == orderId);
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static String cacheKey(int customerId, String key) {
+        return customerId + ":" + key;
+    }
+}
@@ -0,0 +1,388 @@
+package com.mall.cache;
+
+import com.mall.model.Product;
+import com.mall.util.AppConfig;
+import com.mall.util.Metrics;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 商品目录缓存 (进程内)
+ * 缓存商品列表和单个商品，由 ProductDAO 的写方法和下单扣库存时写穿更新/失效。
+ * 过期后重新加载时与旧内容比较，发现绕过本实例的修改 (其他实例、导入工具、手工改库) 时同样递增版本号。
+ * 缓存中的 Product 对象是共享的，调用方只能读取，不能修改。
+ */
+public class ProductCatalogCache {
+
+    private static final ProductCatalogCache INSTANCE = new ProductCatalogCache();
+
+    // 单个商品缓存的最大条数 (LRU 淘汰)
+    private static final int MAX_ITEMS = AppConfig.getInt("PRODUCT_CACHE_MAX_ITEMS", 1000);
+    // 商品列表超过该长度时不缓存整表
+    private static final int MAX_LIST_SIZE = AppConfig.getInt("PRODUCT_CACHE_MAX_LIST_SIZE", 10000);
+    // 兜底过期时间 (毫秒)，用于覆盖绕过应用直接改库的情况
+    private static final long TTL = AppConfig.getLong("PRODUCT_CACHE_TTL_MS", 300000);
+
+    /**
+     * 缓存未命中时的加载函数，加载失败抛出 SQLException，失败结果不会被缓存
+     */
+    public interface Loader<T> {
+        T load() throws SQLException;
+    }
+
+    /**
+     * 批量加载未命中的商品，返回 ID -> 商品 (不存在的 ID 不出现在结果中)
+     */
+    public interface BatchLoader {
+        Map<Integer, Product> load(List<Integer> ids) throws SQLException;
+    }
+
+    // 商品列表及其按 ID 的索引
+    private static class ListEntry {
+        final List<Product> products;
+        final Map<Integer, Product> byId;
+        final long loadedAt;
+
+        ListEntry(List<Product> products, long loadedAt) {
+            this.products = Collections.unmodifiableList(products);
+            this.byId = new HashMap<>();
+            for (Product product : products) {
+                byId.put(product.getId(), product);
+            }
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static class ItemEntry {
+        final Product product;
+        final long loadedAt;
+
+        ItemEntry(Product product, long loadedAt) {
+            this.product = product;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    // 每次目录变化时递增，加载前后版本不一致说明期间有写入，结果丢弃不缓存
+    private final AtomicLong version = new AtomicLong();
+    // 除下单调整库存以外的变化才递增，供快照区分"只有库存变了"的情况
+    private final AtomicLong contentVersion = new AtomicLong();
+    private volatile long lastModified = System.currentTimeMillis();
+    private volatile ListEntry list;
+    private final LinkedHashMap<Integer, ItemEntry> items = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ItemEntry> eldest) {
+            return size() > MAX_ITEMS;
+        }
+    };
+
+    // 目录变化监听器 (如 CatalogSnapshot 据此在后台重建 JSON 快照)
+    private final List<Runnable> changeListeners = new CopyOnWriteArrayList<>();
+
+    private ProductCatalogCache() {
+    }
+
+    public static ProductCatalogCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 获取未删除商品列表 (按 ID 倒序)
+     */
+    public List<Product> getAll(Loader<List<Product>> loader) throws SQLException {
+        ListEntry entry = list;
+        if (entry != null && !isExpired(entry.loadedAt)) {
+            Metrics.increment("productCache.list.hits");
+            return entry.products;
+        }
+        Metrics.increment("productCache.list.misses");
+
+        long loadVersion = version.get();
+        List<Product> products = loader.load();
+        if (products.size() > MAX_LIST_SIZE) {
+            return Collections.unmodifiableList(products);
+        }
+        ListEntry loaded = new ListEntry(products, System.currentTimeMillis());
+        synchronized (this) {
+            if (version.get() == loadVersion) {
+                ListEntry previous = list;
+                list = loaded;
+                if (previous != null && !sameProducts(previous.products, loaded.products)) {
+                    markModified();
+                }
+            }
+        }
+        return loaded.products;
+    }
+
+    /**
+     * 获取单个未删除商品，不存在返回 null (不缓存不存在的结果)
+     */
+    public Product getById(int id, Loader<Product> loader) throws SQLException {
+        ListEntry entry = list;
+        if (entry != null && !isExpired(entry.loadedAt)) {
+            Product product = entry.byId.get(id);
+            if (product != null) {
+                Metrics.increment("productCache.item.hits");
+                return product;
+            }
+        }
+        synchronized (this) {
+            ItemEntry item = items.get(id);
+            if (item != null && !isExpired(item.loadedAt)) {
+                Metrics.increment("productCache.item.hits");
+                return item.product;
+            }
+        }
+        Metrics.increment("productCache.item.misses");
+
+        long loadVersion = version.get();
+        Product product = loader.load();
+        if (product != null) {
+            synchronized (this) {
+                if (version.get() == loadVersion) {
+                    ItemEntry previous = items.put(id, new ItemEntry(product, System.currentTimeMillis()));
+                    if (previous != null && !sameContent(previous.product, product)) {
+                        markModified();
+                    }
+                }
+            }
+        }
+        return product;
+    }
+
+    /**
+     * 批量获取未删除商品，先查缓存，未命中的 ID 交给 loader 一次加载
+     * @return ID -> 商品，不存在或已删除的 ID 不出现在结果中
+     */
+    public Map<Integer, Product> getByIds(Collection<Integer> ids, BatchLoader loader) throws SQLException {
+        Map<Integer, Product> found = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        ListEntry entry = list;
+        boolean listValid = entry != null && !isExpired(entry.loadedAt);
+        synchronized (this) {
+            for (Integer id : ids) {
+                Product product = listValid ? entry.byId.get(id) : null;
+                if (product == null) {
+                    ItemEntry item = items.get(id);
+                    if (item != null && !isExpired(item.loadedAt)) {
+                        product = item.product;
+                    }
+                }
+                if (product != null) {
+                    found.put(id, product);
+                } else {
+                    missing.add(id);
+                }
+            }
+        }
+        Metrics.add("productCache.item.hits", found.size());
+        if (missing.isEmpty()) {
+            return found;
+        }
+        Metrics.add("productCache.item.misses", missing.size());
+
+        long loadVersion = version.get();
+        Map<Integer, Product> loaded = loader.load(missing);
+        synchronized (this) {
+            if (version.get() == loadVersion) {
+                long now = System.currentTimeMillis();
+                boolean changed = false;
+                for (Map.Entry<Integer, Product> item : loaded.entrySet()) {
+                    ItemEntry previous = items.put(item.getKey(), new ItemEntry(item.getValue(), now));
+                    changed |= previous != null && !sameContent(previous.product, item.getValue());
+                }
+                if (changed) {
+                    markModified();
+                }
+            }
+        }
+        found.putAll(loaded);
+        return found;
+    }
+
+    /**
+     * 商品被修改/删除：移除该商品并丢弃列表
+     */
+    public synchronized void invalidate(int productId) {
+        items.remove(productId);
+        list = null;
+        markModified();
+    }
+
+    /**
+     * 新增商品：列表失效，单个商品缓存不受影响
+     */
+    public synchronized void invalidateList() {
+        list = null;
+        markModified();
+    }
+
+    /**
+     * 清空全部缓存
+     */
+    public synchronized void invalidateAll() {
+        items.clear();
+        list = null;
+        markModified();
+    }
+
+    /**
+     * 下单扣减/回补库存：直接在缓存中更新库存，不需要重新加载整表
+     * 缓存对象是共享的，这里替换为修改后的副本
+     */
+    public synchronized void adjustStock(int productId, int delta) {
+        ItemEntry item = items.get(productId);
+        if (item != null) {
+            items.put(productId, new ItemEntry(withStock(item.product, delta), item.loadedAt));
+        }
+
+        ListEntry entry = list;
+        if (entry != null && entry.byId.containsKey(productId)) {
+            List<Product> products = new ArrayList<>(entry.products.size());
+            for (Product product : entry.products) {
+                products.add(product.getId() == productId ? withStock(product, delta) : product);
+            }
+            list = new ListEntry(products, entry.loadedAt);
+        }
+        markModified(true);
+    }
+
+    /**
+     * 商品列表是否已缓存且未过期 (否则条件请求应先重新加载，以便发现绕过本实例的修改)
+     */
+    public boolean isListFresh() {
+        ListEntry entry = list;
+        return entry != null && !isExpired(entry.loadedAt);
+    }
+
+    /**
+     * 单个商品是否已缓存 (在列表或单个商品缓存中) 且未过期
+     */
+    public synchronized boolean isItemFresh(int productId) {
+        ListEntry entry = list;
+        if (entry != null && !isExpired(entry.loadedAt) && entry.byId.containsKey(productId)) {
+            return true;
+        }
+        ItemEntry item = items.get(productId);
+        return item != null && !isExpired(item.loadedAt);
+    }
+
+    /**
+     * 注册目录变化监听器，监听器应当快速返回 (耗时工作交给后台线程)
+     */
+    public void addChangeListener(Runnable listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * 目录版本号，任何变化都会递增
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * 目录内容版本号，只调整库存时不递增
+     */
+    public long getContentVersion() {
+        return contentVersion.get();
+    }
+
+    /**
+     * 目录最近一次变化的时间 (毫秒)
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * 缓存统计信息，供管理员接口查看
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        ListEntry entry = list;
+        stats.put("version", version.get());
+        stats.put("contentVersion", contentVersion.get());
+        stats.put("lastModified", lastModified);
+        stats.put("listCached", entry != null);
+        stats.put("listSize", entry == null ? 0 : entry.products.size());
+        synchronized (this) {
+            stats.put("itemCount", items.size());
+        }
+        stats.put("maxItems", MAX_ITEMS);
+        stats.put("listHits", Metrics.get("productCache.list.hits"));
+        stats.put("listMisses", Metrics.get("productCache.list.misses"));
+        stats.put("itemHits", Metrics.get("productCache.item.hits"));
+        stats.put("itemMisses", Metrics.get("productCache.item.misses"));
+        return stats;
+    }
+
+    private void markModified() {
+        markModified(false);
+    }
+
+    private void markModified(boolean stockOnly) {
+        // 先递增内容版本号：读到新 version 的线程一定也能看到内容变化
+        if (!stockOnly) {
+            contentVersion.incrementAndGet();
+        }
+        version.incrementAndGet();
+        lastModified = System.currentTimeMillis();
+        for (Runnable listener : changeListeners) {
+            listener.run();
+        }
+    }
+
+    private boolean isExpired(long loadedAt) {
+        return System.currentTimeMillis() - loadedAt > TTL;
+    }
+
+    private static boolean sameProducts(List<Product> a, List<Product> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!sameContent(a.get(i), b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 比较对外展示的字段；不比较 updated_at (本实例下单后只在缓存中调整库存，不会同步数据库的 updated_at)
+    private static boolean sameContent(Product a, Product b) {
+        return a.getId() == b.getId()
+                && a.getStockQuantity() == b.getStockQuantity()
+                && a.isDeleted() == b.isDeleted()
+                && Objects.equals(a.getName(), b.getName())
+                && Objects.equals(a.getDescription(), b.getDescription())
+                && Objects.equals(a.getImageUrl(), b.getImageUrl())
+                && (a.getPrice() == null ? b.getPrice() == null : b.getPrice() != null && a.getPrice().compareTo(b.getPrice()) == 0)
+                && Objects.equals(a.getCreatedAt(), b.getCreatedAt());
+    }
+
+    private static Product withStock(Product source, int delta) {
+        Product copy = new Product();
+        copy.setId(source.getId());
+        copy.setName(source.getName());
+        copy.setDescription(source.getDescription());
+        copy.setPrice(source.getPrice());
+        copy.setStockQuantity(source.getStockQuantity() + delta);
+        copy.setImageUrl(source.getImageUrl());
+        copy.setDeleted(source.isDeleted());
+        copy.setCreatedAt(source.getCreatedAt());
+        copy.setUpdatedAt(source.getUpdatedAt());
+        return copy;
+    }
+}
@@ -0,0 +1,178 @@
+package com.mall.cache;
+
+import com.mall.util.AppConfig;
+import com.mall.util.Metrics;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 统计结果缓存 (进程内)，按统计类型 + 参数缓存 StatsDAO 的查询结果
+ * - 未过期 (STATS_CACHE_TTL_MS 内) 直接返回
+ * - 过期但仍在 STATS_CACHE_STALE_MS 宽限期内：先返回旧结果，后台刷新 (stale-while-revalidate)
+ * - 同一个 key 的并发未命中只执行一次查询，其余请求等待同一结果 (single-flight)
+ * - fresh 为 true 时跳过缓存直接查询，并用结果更新缓存
+ * 缓存的结果是共享的，调用方只能读取，不能修改。
+ */
+public class StatsCache {
+
+    private static final long TTL = AppConfig.getLong("STATS_CACHE_TTL_MS", 30000);
+    private static final long STALE = AppConfig.getLong("STATS_CACHE_STALE_MS", 300000);
+    // 缓存条数上限 (日期范围等参数可任意组合，LRU 淘汰)
+    private static final int MAX_ENTRIES = AppConfig.getInt("STATS_CACHE_MAX_ENTRIES", 500);
+
+    // 构造函数用到上面的配置，必须在配置之后创建
+    private static final StatsCache INSTANCE = new StatsCache();
+
+    /**
+     * 缓存未命中时的加载函数，加载失败抛出 SQLException，失败结果不会被缓存
+     */
+    public interface Loader<T> {
+        T load() throws SQLException;
+    }
+
+    private static class Entry {
+        final Object value;
+        final long loadedAt;
+
+        Entry(Object value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    // 正在加载的 key -> 加载结果
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    // 后台刷新过期结果；队列满时丢弃 (下一个请求会再次触发)
+    private final ThreadPoolExecutor refresher = new ThreadPoolExecutor(1, 2, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(50),
+            runnable -> {
+                Thread thread = new Thread(runnable, "stats-cache-refresh");
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    private StatsCache() {
+        Metrics.registerGauge("statsCache.entries", this::size);
+    }
+
+    public static StatsCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 获取统计结果
+     * @param key 统计类型 + 参数，例如 "daily:2024-01-01:2024-01-31"
+     * @param fresh 是否跳过缓存直接查询
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, boolean fresh, Loader<T> loader) throws SQLException {
+        if (fresh) {
+            Metrics.increment("statsCache.bypass");
+            T value = loader.load();
+            put(key, value);
+            return value;
+        }
+
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            long age = System.currentTimeMillis() - entry.loadedAt;
+            if (age < TTL) {
+                Metrics.increment("statsCache.hits");
+                return (T) entry.value;
+            }
+            if (age < TTL + STALE) {
+                Metrics.increment("statsCache.staleHits");
+                refreshInBackground(key, loader);
+                return (T) entry.value;
+            }
+        }
+        Metrics.increment("statsCache.misses");
+        return loadShared(key, loader);
+    }
+
+    /**
+     * 清空缓存 (例如重建销售统计汇总表之后)
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    // 同一个 key 同时只有一个线程执行 loader，其余线程等待它的结果
+    @SuppressWarnings("unchecked")
+    private <T> T loadShared(String key, Loader<T> loader) throws SQLException {
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            Metrics.increment("statsCache.coalesced");
+            try {
+                return (T) existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        try {
+            T value = loader.load();
+            put(key, value);
+            mine.complete(value);
+            return value;
+        } catch (SQLException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private void refreshInBackground(String key, Loader<?> loader) {
+        if (inFlight.containsKey(key)) {
+            return;
+        }
+        refresher.execute(() -> {
+            try {
+                loadShared(key, loader);
+            } catch (SQLException | RuntimeException e) {
+                System.err.println("后台刷新统计缓存失败 (" + key + "): " + e.getMessage());
+            }
+        });
+    }
+
+    private void put(String key, Object value) {
+        synchronized (entries) {
+            entries.put(key, new Entry(value, System.currentTimeMillis()));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.mall.dao;
+
+import com.mall.util.DBUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 邮件发件箱 (email_outbox) 数据访问
+ * 写入在业务事务中进行 (由调用方传入连接)；领取/标记由后台 EmailOutboxDispatcher 调用
+ */
+public class EmailOutboxDAO {
+
+    /**
+     * 在调用方的事务中为客户写入一封待发送邮件，收件人取客户表中的邮箱
+     * @return 是否写入 (客户没有邮箱时不写入)
+     */
+    public boolean enqueueForCustomer(Connection conn, int customerId, String subject, String body) throws SQLException {
+        String sql = "INSERT INTO email_outbox (recipient, subject, body) "
+                + "SELECT email, ?, ? FROM customer WHERE id = ? AND email IS NOT NULL AND email <> ''";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, subject);
+            ps.setString(2, body);
+            ps.setInt(3, customerId);
+            return ps.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * 领取一批到期的待发送邮件并标记为 SENDING
+     * 领取超过 claimTimeoutSeconds 仍未完成的 SENDING 邮件 (发送进程崩溃) 也会被重新领取，并计为一次失败的尝试；
+     * 重新领取时尝试次数达到 maxAttempts 的邮件 (如每次都让发送进程崩溃的邮件) 标记为 FAILED，不再返回。
+     * SKIP LOCKED 保证多个实例同时领取时互不阻塞、不重复
+     * @return 每封邮件一个 Map：id, recipient, subject, body, attempts (已计入本次重新领取)
+     */
+    public List<Map<String, Object>> claimBatch(int limit, long claimTimeoutSeconds, int maxAttempts) throws SQLException {
+        String selectSql = "SELECT id, recipient, subject, body, attempts, status FROM email_outbox "
+                + "WHERE (status = 'PENDING' AND next_attempt_at <= NOW()) "
+                + "OR (status = 'SENDING' AND claimed_at < NOW() - INTERVAL ? SECOND) "
+                + "ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED";
+
+        Connection conn = null;
+        try {
+            conn = DBUtil.getConnection();
+            conn.setAutoCommit(false);
+
+            List<Map<String, Object>> emails = new ArrayList<>();
+            List<Long> abandonedIds = new ArrayList<>();
+            try (PreparedStatement ps = conn.prepareStatement(selectSql)) {
+                ps.setLong(1, claimTimeoutSeconds);
+                ps.setInt(2, limit);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        // 仍是 SENDING 说明上一次领取后发送进程没有完成，算作一次失败
+                        int attempts = rs.getInt("attempts") + ("SENDING".equals(rs.getString("status")) ? 1 : 0);
+                        if (attempts >= maxAttempts) {
+                            abandonedIds.add(rs.getLong("id"));
+                            continue;
+                        }
+                        Map<String, Object> email = new HashMap<>();
+                        email.put("id", rs.getLong("id"));
+                        email.put("recipient", rs.getString("recipient"));
+                        email.put("subject", rs.getString("subject"));
+                        email.put("body", rs.getString("body"));
+                        email.put("attempts", attempts);
+                        emails.add(email);
+                    }
+                }
+            }
+
+            if (!emails.isEmpty()) {
+                List<Long> ids = new ArrayList<>();
+                for (Map<String, Object> email : emails) {
+                    ids.add((Long) email.get("id"));
+                }
+                // attempts 必须写在 status 之前：MySQL 按顺序求值，后面的赋值看到的是已修改的列
+                updateByIds(conn, "UPDATE email_outbox SET attempts = attempts + IF(status = 'SENDING', 1, 0), "
+                        + "status = 'SENDING', claimed_at = NOW() WHERE id IN ", ids);
+            }
+            if (!abandonedIds.isEmpty()) {
+                System.err.println("发件箱邮件多次发送未完成，标记为 FAILED: " + abandonedIds);
+                updateByIds(conn, "UPDATE email_outbox SET attempts = attempts + 1, status = 'FAILED', claimed_at = NULL, "
+                        + "last_error = '发送进程多次未完成发送' WHERE id IN ", abandonedIds);
+            }
+            conn.commit();
+            return emails;
+        } catch (SQLException e) {
+            if (conn != null) {
+                try {
+                    conn.rollback();
+                } catch (SQLException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            throw e;
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true);
+                    conn.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private static void updateByIds(Connection conn, String sqlPrefix, List<Long> ids) throws SQLException {
+        String placeholders = String.join(",", Collections.nCopies(ids.size(), "?"));
+        try (PreparedStatement ps = conn.prepareStatement(sqlPrefix + "(" + placeholders + ")")) {
+            for (int i = 0; i < ids.size(); i++) {
+                ps.setLong(i + 1, ids.get(i));
+            }
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * 批量标记为已发送
+     */
+    public void markSent(List<Long> ids) throws SQLException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        String placeholders = String.join(",", Collections.nCopies(ids.size(), "?"));
+        String sql = "UPDATE email_outbox SET status = 'SENT', sent_at = NOW(), last_error = NULL WHERE id IN (" + placeholders + ")";
+        try (Connection conn = DBUtil.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int i = 0; i < ids.size(); i++) {
+                ps.setLong(i + 1, ids.get(i));
+            }
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * 记录一次发送失败：retryDelaySeconds 后重新变为可领取；giveUp 为 true 时标记为 FAILED 不再重试
+     */
+    public void markFailed(long id, String error, boolean giveUp, long retryDelaySeconds) throws SQLException {
+        String sql = "UPDATE email_outbox SET status = ?, attempts = attempts + 1, last_error = ?, "
+                + "claimed_at = NULL, next_attempt_at = NOW() + INTERVAL ? SECOND WHERE id = ?";
+        try (Connection conn = DBUtil.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, giveUp ? "FAILED" : "PENDING");
+            ps.setString(2, error == null ? null : error.substring(0, Math.min(error.length(), 500)));
+            ps.setLong(3, retryDelaySeconds);
+            ps.setLong(4, id);
+            ps.executeUpdate();
+        }
+    }
+}
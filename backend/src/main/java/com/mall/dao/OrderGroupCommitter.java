@@ -0,0 +1,279 @@
+package com.mall.dao;
+
+import com.mall.model.OrderItem;
+import com.mall.model.OrderMaster;
+import com.mall.util.AppConfig;
+import com.mall.util.DBUtil;
+import com.mall.util.Metrics;
+import com.mall.util.UnitOfWork;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单合并提交 (group commit)，通过环境变量 ORDER_GROUP_COMMIT=true 开启
+ * 并发的下单请求进入队列，由单个后台线程每 ORDER_GROUP_COMMIT_WINDOW_MS 毫秒 (或凑满 ORDER_GROUP_COMMIT_MAX_BATCH 个)
+ * 合并为一个事务提交，多个订单共用一次提交的刷盘开销。
+ * 每个订单在自己的保存点内写入，库存不足等失败只回滚该订单；整个事务失败 (如死锁) 时退回逐个独立提交。
+ * 锁等待超时 (1205) 只回滚当前语句，该订单回滚到保存点，批次提交后走单订单路径 (有限次重试)。
+ * commit() 本身失败时结果未知 (服务端可能已经提交)：先确认批次是否已写入，确认未写入才逐个重新提交。
+ * 请求线程排队前先归还请求已借出的数据库连接，等待期间不占用连接，后台线程才能从连接池借到连接。
+ */
+public class OrderGroupCommitter {
+
+    private static final boolean ENABLED = AppConfig.getBoolean("ORDER_GROUP_COMMIT", false);
+    // 收集一批订单的时间窗口 (毫秒) 和单批最多订单数
+    private static final long WINDOW_MS = AppConfig.getLong("ORDER_GROUP_COMMIT_WINDOW_MS", 2);
+    private static final int MAX_BATCH = AppConfig.getInt("ORDER_GROUP_COMMIT_MAX_BATCH", 50);
+
+    private static final OrderGroupCommitter INSTANCE = new OrderGroupCommitter();
+
+    // 批次中锁等待超时、需要单独重新提交的订单
+    private static final int RETRY_ALONE = 0;
+
+    // 排队中的订单及其结果 (订单ID，失败为 -1)
+    private static class PendingOrder {
+        final OrderMaster order;
+        final List<OrderItem> items;
+        final List<Integer> cartItemIds;
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        PendingOrder(OrderMaster order, List<OrderItem> items, List<Integer> cartItemIds) {
+            this.order = order;
+            this.items = items;
+            this.cartItemIds = cartItemIds;
+        }
+    }
+
+    private final OrderDAO orderDAO = new OrderDAO();
+    private final BlockingQueue<PendingOrder> queue = new LinkedBlockingQueue<>();
+    private volatile boolean running;
+    private Thread worker;
+
+    private OrderGroupCommitter() {
+        if (ENABLED) {
+            running = true;
+            worker = new Thread(this::run, "order-group-commit");
+            worker.setDaemon(true);
+            worker.start();
+            Metrics.registerGauge("orderGroupCommit.queueSize", queue::size);
+            System.out.println("订单合并提交已开启，窗口: " + WINDOW_MS + "ms，单批上限: " + MAX_BATCH);
+        }
+    }
+
+    public static OrderGroupCommitter getInstance() {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * 提交订单并等待所在批次提交完成 (调用方不能处于请求级事务中)
+     * @return 订单ID，失败返回 -1
+     */
+    public int submit(OrderMaster order, List<OrderItem> items, List<Integer> cartItemIds) {
+        if (!running) {
+            return orderDAO.createOrderInTransaction(order, items, cartItemIds);
+        }
+        UnitOfWork.releaseConnections();
+        PendingOrder pending = new PendingOrder(order, items, cartItemIds);
+        queue.add(pending);
+        // 入队时后台线程可能已经停止并处理完剩余队列：还能从队列中取回说明没有线程会处理它，改为自己提交
+        if (!running && queue.remove(pending)) {
+            return orderDAO.createOrderInTransaction(order, items, cartItemIds);
+        }
+        // 不可中断地等待：订单可能已经提交，不能在结果未知时返回
+        return pending.result.join();
+    }
+
+    /**
+     * 停止后台线程，队列中剩余的订单逐个提交后返回
+     */
+    public void shutdown() {
+        if (worker == null) {
+            return;
+        }
+        running = false;
+        try {
+            worker.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<PendingOrder> batch = new ArrayList<>();
+        while (running) {
+            try {
+                PendingOrder first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WINDOW_MS);
+                while (batch.size() < MAX_BATCH) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingOrder next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commitBatch(batch);
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                // 任何情况下都不能让等待的请求线程一直阻塞
+                for (PendingOrder pending : batch) {
+                    pending.result.complete(-1);
+                }
+                batch.clear();
+            }
+        }
+
+        PendingOrder pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.complete(orderDAO.createOrderInTransaction(pending.order, pending.items, pending.cartItemIds));
+        }
+    }
+
+    private void commitBatch(List<PendingOrder> batch) {
+        if (batch.size() == 1) {
+            PendingOrder pending = batch.get(0);
+            pending.result.complete(orderDAO.createOrderInTransaction(pending.order, pending.items, pending.cartItemIds));
+            return;
+        }
+
+        int[] orderIds = new int[batch.size()];
+        boolean written = false;
+        boolean committed = false;
+        try (Connection conn = DBUtil.getDedicatedConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    PendingOrder pending = batch.get(i);
+                    Savepoint savepoint = conn.setSavepoint();
+                    try {
+                        orderIds[i] = orderDAO.insertOrder(conn, pending.order, pending.items, pending.cartItemIds);
+                        conn.releaseSavepoint(savepoint);
+                    } catch (SQLException e) {
+                        if (isTransactionAborted(e)) {
+                            throw e; // 死锁时 MySQL 已回滚整个事务，保存点也不存在了
+                        }
+                        // 开启 innodb_rollback_on_timeout 时锁等待超时也会回滚整个事务，这里回滚保存点会失败，按整批失败处理
+                        conn.rollback(savepoint);
+                        if (OrderDAO.isLockConflict(e)) {
+                            System.err.println("合并提交中的订单锁等待超时，批次提交后单独重试: " + e.getMessage());
+                            orderIds[i] = RETRY_ALONE;
+                        } else {
+                            System.err.println("合并提交中的订单写入失败，仅回滚该订单: " + e.getMessage());
+                            orderIds[i] = -1;
+                        }
+                    }
+                }
+                written = true;
+                conn.commit();
+                committed = true;
+            } catch (SQLException e) {
+                try {
+                    conn.rollback();
+                } catch (SQLException rollbackError) {
+                    e.addSuppressed(rollbackError);
+                }
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            if (!written) {
+                // 提交之前失败，整个事务已回滚
+                System.err.println("订单合并提交失败，改为逐个提交: " + e.getMessage());
+                Metrics.increment("orderGroupCommit.fallbacks");
+                submitAlone(batch);
+                return;
+            }
+            if (!committed) {
+                System.err.println("订单合并提交结果未知，确认订单是否已写入: " + e.getMessage());
+                Metrics.increment("orderGroupCommit.commitUnknown");
+                Boolean batchCommitted = isBatchCommitted(orderIds);
+                if (batchCommitted == null) {
+                    completeUnknown(batch, orderIds);
+                    return;
+                }
+                if (!batchCommitted) {
+                    Metrics.increment("orderGroupCommit.fallbacks");
+                    submitAlone(batch);
+                    return;
+                }
+            }
+            // 已经提交，只是恢复自动提交或归还连接失败
+        }
+
+        Metrics.increment("orderGroupCommit.batches");
+        Metrics.add("orderGroupCommit.orders", batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            PendingOrder pending = batch.get(i);
+            if (orderIds[i] == RETRY_ALONE) {
+                pending.result.complete(orderDAO.createOrderInTransaction(pending.order, pending.items, pending.cartItemIds));
+            } else {
+                pending.result.complete(orderIds[i]);
+            }
+        }
+    }
+
+    private void submitAlone(List<PendingOrder> batch) {
+        for (PendingOrder pending : batch) {
+            pending.result.complete(orderDAO.createOrderInTransaction(pending.order, pending.items, pending.cartItemIds));
+        }
+    }
+
+    /**
+     * commit() 失败后确认批次是否已写入：同一事务的订单要么全部提交要么全部没有，查其中一个订单即可
+     * @return 批次中没有写入成功的订单时返回 true (无需重试)；无法确认时返回 null
+     */
+    private Boolean isBatchCommitted(int[] orderIds) {
+        for (int orderId : orderIds) {
+            if (orderId > 0) {
+                try {
+                    return orderDAO.isOrderCommitted(orderId);
+                } catch (SQLException e) {
+                    System.err.println("无法确认合并提交是否成功 (订单 " + orderId + "): " + e.getMessage());
+                    return null;
+                }
+            }
+        }
+        return true;
+    }
+
+    // 无法确认是否提交：不能重新提交 (可能重复下单)，按失败返回；客户端带幂等键重试时会查到已提交的订单
+    private void completeUnknown(List<PendingOrder> batch, int[] orderIds) {
+        for (int i = 0; i < batch.size(); i++) {
+            PendingOrder pending = batch.get(i);
+            if (orderIds[i] == RETRY_ALONE) {
+                // 已回滚到保存点，不在批次中，可以安全地单独提交
+                pending.result.complete(orderDAO.createOrderInTransaction(pending.order, pending.items, pending.cartItemIds));
+            } else {
+                if (orderIds[i] > 0) {
+                    System.err.println("订单 " + orderIds[i] + " 的合并提交结果未知，按失败返回。");
+                }
+                pending.result.complete(-1);
+            }
+        }
+    }
+
+    // MySQL 死锁 (1213) 会回滚整个事务
+    private static boolean isTransactionAborted(SQLException e) {
+        return e.getErrorCode() == 1213 || "40001".equals(e.getSQLState());
+    }
+}
@@ -1,16 +1,31 @@
 package com.mall.dao;
 
+import com.mall.cache.ProductCatalogCache;
+import com.mall.inventory.InventoryReservations;
 import com.mall.model.Product;
+import com.mall.model.ProductImportReport;
+import com.mall.model.ProductQuery;
+import com.mall.search.ProductSearchIndex;
 import com.mall.util.DBUtil;
+import com.mall.util.UnitOfWork;
+import java.math.BigDecimal;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 /**
  * 商品数据访问对象 (Product DAO)
+ * 读操作经过 ProductCatalogCache，写操作提交后 (UnitOfWork.afterCommit) 失效缓存并更新检索索引
  */
 public class ProductDAO {
 
+    private final ProductCatalogCache cache = ProductCatalogCache.getInstance();
+    private final ProductSearchIndex searchIndex = ProductSearchIndex.getInstance();
+
     // --- 1. 创建商品 (Create) ---
     public boolean createProduct(Product product) {
         // 先查询是否存在相同名称的商品
@@ -34,19 +49,43 @@ public class ProductDAO {
                         updatePs.setString(4, product.getImageUrl());
                         updatePs.setInt(5, existingId);
 
-                        return updatePs.executeUpdate() > 0;
+                        if (updatePs.executeUpdate() > 0) {
+                            UnitOfWork.afterCommit(() -> {
+                                cache.invalidate(existingId);
+                                InventoryReservations.getInstance().forget(existingId);
+                                searchIndex.index(existingId, product.getName(), product.getDescription());
+                            });
+                            return true;
+                        }
+                        return false;
                     }
                 } else {
                     // 商品不存在，创建新商品
                     String insertSql = "INSERT INTO product (name, description, price, stock_quantity, image_url) VALUES (?, ?, ?, ?, ?)";
-                    try (PreparedStatement insertPs = conn.prepareStatement(insertSql)) {
+                    try (PreparedStatement insertPs = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS)) {
                         insertPs.setString(1, product.getName());
                         insertPs.setString(2, product.getDescription());
                         insertPs.setBigDecimal(3, product.getPrice());
                         insertPs.setInt(4, product.getStockQuantity());
                         insertPs.setString(5, product.getImageUrl());
 
-                        return insertPs.executeUpdate() > 0;
+                        if (insertPs.executeUpdate() > 0) {
+                            int newId = -1;
+                            try (ResultSet keys = insertPs.getGeneratedKeys()) {
+                                if (keys.next()) {
+                                    newId = keys.getInt(1);
+                                }
+                            }
+                            int productId = newId;
+                            UnitOfWork.afterCommit(() -> {
+                                cache.invalidateList();
+                                if (productId > 0) {
+                                    searchIndex.index(productId, product.getName(), product.getDescription());
+                                }
+                            });
+                            return true;
+                        }
+                        return false;
                     }
                 }
             }
@@ -56,28 +95,264 @@ public class ProductDAO {
         }
     }
 
+    // --- 1.2 批量导入商品 (一个分段一个事务) ---
+    // 与 createProduct 语义一致：同名未删除商品累加库存并覆盖描述/价格/图片，否则新建。
+    // 使用独立连接在本方法内提交，不参与请求级事务；缓存和检索索引在整个导入结束后由 finishImport() 统一刷新。
+    public void importProductChunk(List<Product> rows, ProductImportReport report) throws SQLException {
+        // 分段内同名的行先合并 (名称比较忽略大小写，与表的排序规则一致)
+        Map<String, Product> merged = new LinkedHashMap<>();
+        for (Product row : rows) {
+            String key = row.getName().toLowerCase(Locale.ROOT);
+            Product existing = merged.get(key);
+            if (existing == null) {
+                merged.put(key, row);
+            } else {
+                existing.setStockQuantity(existing.getStockQuantity() + row.getStockQuantity());
+                existing.setDescription(row.getDescription());
+                existing.setPrice(row.getPrice());
+                existing.setImageUrl(row.getImageUrl());
+            }
+        }
+
+        try (Connection conn = DBUtil.getDedicatedConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                // 锁定已存在的同名商品，避免并发导入重复插入/丢失库存
+                Map<String, Integer> existingIds = new HashMap<>();
+                StringBuilder placeholders = new StringBuilder();
+                for (int i = 0; i < merged.size(); i++) {
+                    placeholders.append(i == 0 ? "?" : ", ?");
+                }
+                String selectSql = "SELECT id, name FROM product WHERE is_deleted = 0 AND name IN (" + placeholders + ") ORDER BY id FOR UPDATE";
+                try (PreparedStatement ps = conn.prepareStatement(selectSql)) {
+                    int index = 1;
+                    for (Product product : merged.values()) {
+                        ps.setString(index++, product.getName());
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            existingIds.putIfAbsent(rs.getString("name").toLowerCase(Locale.ROOT), rs.getInt("id"));
+                        }
+                    }
+                }
+
+                String updateSql = "UPDATE product SET stock_quantity = stock_quantity + ?, description = ?, price = ?, image_url = ? WHERE id = ?";
+                String insertSql = "INSERT INTO product (name, description, price, stock_quantity, image_url) VALUES (?, ?, ?, ?, ?)";
+                int inserted;
+                int updated;
+                try (PreparedStatement updatePs = conn.prepareStatement(updateSql);
+                     PreparedStatement insertPs = conn.prepareStatement(insertSql)) {
+                    for (Map.Entry<String, Product> entry : merged.entrySet()) {
+                        Product product = entry.getValue();
+                        Integer existingId = existingIds.get(entry.getKey());
+                        if (existingId != null) {
+                            updatePs.setInt(1, product.getStockQuantity());
+                            updatePs.setString(2, product.getDescription());
+                            updatePs.setBigDecimal(3, product.getPrice());
+                            updatePs.setString(4, product.getImageUrl());
+                            updatePs.setInt(5, existingId);
+                            updatePs.addBatch();
+                        } else {
+                            insertPs.setString(1, product.getName());
+                            insertPs.setString(2, product.getDescription());
+                            insertPs.setBigDecimal(3, product.getPrice());
+                            insertPs.setInt(4, product.getStockQuantity());
+                            insertPs.setString(5, product.getImageUrl());
+                            insertPs.addBatch();
+                        }
+                    }
+                    // 按批量执行结果计数：分段内合并的重复行不算作更新
+                    updated = countAffected(updatePs.executeBatch());
+                    inserted = countAffected(insertPs.executeBatch());
+                }
+                conn.commit();
+
+                report.addInserted(inserted);
+                report.addUpdated(updated);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    // 批量语句影响的行数 (驱动可能返回 SUCCESS_NO_INFO，按一行计)
+    private static int countAffected(int[] results) {
+        int count = 0;
+        for (int result : results) {
+            if (result > 0) {
+                count += result;
+            } else if (result == Statement.SUCCESS_NO_INFO) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // 批量导入结束后刷新商品缓存和检索索引
+    public void finishImport() {
+        cache.invalidateAll();
+        InventoryReservations.getInstance().forgetAll();
+        rebuildSearchIndex();
+    }
+
     // --- 2. 获取所有商品 (Read - All) ---
     public List<Product> getAllProducts() {
+        try {
+            return getCatalog();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    // --- 3. 获取单个商品 (Read - Single) ---
+    public Product getProductById(int id) {
+        try {
+            return getCatalogProduct(id);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // --- 3.1 分页获取商品 (Read - Keyset Page) ---
+    // 按 (排序列, id) 做键集分页，不返回 description 大字段；返回最多 limit + 1 条，多出的一条用于判断是否有下一页
+    public List<Product> getProductPage(ProductQuery query) {
+        List<Product> products = new ArrayList<>();
+        ProductQuery.SortField sortField = query.getSortField();
+        String column = sortField.getColumn();
+        String direction = query.isDescending() ? "DESC" : "ASC";
+        String comparator = query.isDescending() ? "<" : ">";
+
+        StringBuilder sql = new StringBuilder(
+                "SELECT id, name, price, stock_quantity, image_url, is_deleted, created_at, updated_at " +
+                "FROM product WHERE is_deleted = 0");
+        List<Object> params = new ArrayList<>();
+
+        if (query.getMinPrice() != null) {
+            sql.append(" AND price >= ?");
+            params.add(query.getMinPrice());
+        }
+        if (query.getMaxPrice() != null) {
+            sql.append(" AND price <= ?");
+            params.add(query.getMaxPrice());
+        }
+        if (query.isInStockOnly()) {
+            sql.append(" AND stock_quantity > 0");
+        }
+
+        // 游标条件：(col, id) 严格位于上一页最后一条之后
+        if (query.getCursorId() != null) {
+            if (sortField == ProductQuery.SortField.ID) {
+                sql.append(" AND id ").append(comparator).append(" ?");
+                params.add(query.getCursorId());
+            } else {
+                Object cursorValue = parseCursorValue(sortField, query.getCursorValue());
+                sql.append(" AND (").append(column).append(" ").append(comparator).append(" ? OR (")
+                        .append(column).append(" = ? AND id ").append(comparator).append(" ?))");
+                params.add(cursorValue);
+                params.add(cursorValue);
+                params.add(query.getCursorId());
+            }
+        }
+
+        if (sortField == ProductQuery.SortField.ID) {
+            sql.append(" ORDER BY id ").append(direction);
+        } else {
+            sql.append(" ORDER BY ").append(column).append(" ").append(direction).append(", id ").append(direction);
+        }
+        sql.append(" LIMIT ?");
+        params.add(query.getLimit() + 1);
+
+        try (Connection conn = DBUtil.getReadConnection();
+             PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+
+            for (int i = 0; i < params.size(); i++) {
+                ps.setObject(i + 1, params.get(i));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    products.add(extractProductSummaryFromResultSet(rs));
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return products;
+    }
+
+    // 把游标中的排序值转换为对应列的类型 (created_at 以毫秒时间戳保存)
+    private Object parseCursorValue(ProductQuery.SortField sortField, String value) {
+        switch (sortField) {
+            case PRICE:
+                return new BigDecimal(value);
+            case CREATED_AT:
+                return new Timestamp(Long.parseLong(value));
+            case STOCK:
+                return Integer.parseInt(value);
+            default:
+                return Integer.parseInt(value);
+        }
+    }
+
+    // --- 3.2 重建商品检索索引 (启动时及索引未就绪时调用) ---
+    public boolean rebuildSearchIndex() {
+        try {
+            searchIndex.rebuild(loadAllProducts());
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // --- 2.2 批量获取商品 (购物车/订单页一次取多个商品) ---
+    // 返回 ID -> 商品，不存在或已删除的 ID 不出现在结果中；数据库错误返回 null
+    public Map<Integer, Product> getProductsByIds(List<Integer> ids) {
+        try {
+            return cache.getByIds(ids, this::loadProductsByIds);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // 经缓存获取商品列表，失败时抛出异常 (供后台构建快照使用，避免把失败当成空列表)
+    public List<Product> getCatalog() throws SQLException {
+        return cache.getAll(this::loadAllProducts);
+    }
+
+    // 经缓存获取单个商品，不存在返回 null，失败时抛出异常
+    public Product getCatalogProduct(int id) throws SQLException {
+        return cache.getById(id, () -> loadProductById(id));
+    }
+
+    // 以下 load* 方法在缓存未命中时调用，结果会被缓存到下一次失效或过期：
+    // 读主库 (从库可能还没同步刚失效的修改)，并使用独立连接 (不读到请求级事务中尚未提交的修改)
+
+    // 从数据库加载所有未删除商品 (缓存未命中时调用)
+    private List<Product> loadAllProducts() throws SQLException {
         List<Product> products = new ArrayList<>();
         // 仅查询未被软删除的商品
         String sql = "SELECT * FROM product WHERE is_deleted = 0 ORDER BY id DESC";
-        try (Connection conn = DBUtil.getConnection();
+        try (Connection conn = DBUtil.getDedicatedConnection();
              PreparedStatement ps = conn.prepareStatement(sql);
              ResultSet rs = ps.executeQuery()) {
 
             while (rs.next()) {
                 products.add(extractProductFromResultSet(rs));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return products;
     }
 
-    // --- 3. 获取单个商品 (Read - Single) ---
-    public Product getProductById(int id) {
+    // 从数据库加载单个未删除商品 (缓存未命中时调用)
+    private Product loadProductById(int id) throws SQLException {
         String sql = "SELECT * FROM product WHERE id = ? AND is_deleted = 0";
-        try (Connection conn = DBUtil.getConnection();
+        try (Connection conn = DBUtil.getDedicatedConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
             ps.setInt(1, id);
@@ -86,12 +361,57 @@ public class ProductDAO {
                     return extractProductFromResultSet(rs);
                 }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return null;
     }
 
+    // 读取多个未删除商品的当前库存 (主库)，供库存预占引擎加载和校准计数器
+    public Map<Integer, Integer> getStockQuantities(List<Integer> ids) throws SQLException {
+        Map<Integer, Integer> stocks = new HashMap<>();
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < ids.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+        String sql = "SELECT id, stock_quantity FROM product WHERE id IN (" + placeholders + ") AND is_deleted = 0";
+        try (Connection conn = DBUtil.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            for (int i = 0; i < ids.size(); i++) {
+                ps.setInt(i + 1, ids.get(i));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    stocks.put(rs.getInt("id"), rs.getInt("stock_quantity"));
+                }
+            }
+        }
+        return stocks;
+    }
+
+    // 用一条 IN 查询加载多个未删除商品 (批量查询缓存未命中时调用)
+    private Map<Integer, Product> loadProductsByIds(List<Integer> ids) throws SQLException {
+        Map<Integer, Product> products = new HashMap<>();
+        StringBuilder placeholders = new StringBuilder();
+        for (int i = 0; i < ids.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+        }
+        String sql = "SELECT * FROM product WHERE id IN (" + placeholders + ") AND is_deleted = 0";
+        try (Connection conn = DBUtil.getDedicatedConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            for (int i = 0; i < ids.size(); i++) {
+                ps.setInt(i + 1, ids.get(i));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Product product = extractProductFromResultSet(rs);
+                    products.put(product.getId(), product);
+                }
+            }
+        }
+        return products;
+    }
+
     // --- 4. 更新商品 (Update) ---
     public boolean updateProduct(Product product) {
         String sql = "UPDATE product SET name = ?, description = ?, price = ?, stock_quantity = ?, image_url = ? WHERE id = ? AND is_deleted = 0";
@@ -105,7 +425,15 @@ public class ProductDAO {
             ps.setString(5, product.getImageUrl());
             ps.setInt(6, product.getId()); // WHERE 子句
 
-            return ps.executeUpdate() > 0;
+            if (ps.executeUpdate() > 0) {
+                UnitOfWork.afterCommit(() -> {
+                    cache.invalidate(product.getId());
+                    InventoryReservations.getInstance().forget(product.getId());
+                    searchIndex.index(product.getId(), product.getName(), product.getDescription());
+                });
+                return true;
+            }
+            return false;
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
@@ -120,7 +448,15 @@ public class ProductDAO {
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
             ps.setInt(1, id);
-            return ps.executeUpdate() > 0;
+            if (ps.executeUpdate() > 0) {
+                UnitOfWork.afterCommit(() -> {
+                    cache.invalidate(id);
+                    InventoryReservations.getInstance().forget(id);
+                    searchIndex.remove(id);
+                });
+                return true;
+            }
+            return false;
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
@@ -141,4 +477,18 @@ public class ProductDAO {
         product.setUpdatedAt(rs.getTimestamp("updated_at"));
         return product;
     }
+
+    // 辅助方法：提取列表用的商品摘要 (不含 description)
+    private Product extractProductSummaryFromResultSet(ResultSet rs) throws SQLException {
+        Product product = new Product();
+        product.setId(rs.getInt("id"));
+        product.setName(rs.getString("name"));
+        product.setPrice(rs.getBigDecimal("price"));
+        product.setStockQuantity(rs.getInt("stock_quantity"));
+        product.setImageUrl(rs.getString("image_url"));
+        product.setDeleted(rs.getBoolean("is_deleted"));
+        product.setCreatedAt(rs.getTimestamp("created_at"));
+        product.setUpdatedAt(rs.getTimestamp("updated_at"));
+        return product;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+package com.mall.dao;
+
+import com.mall.util.DBUtil;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 销售统计汇总表 (sales_rollup) 的维护
+ * 增量方法在调用方的订单事务中执行，汇总与订单同时提交或回滚；rebuild 用于回填和纠偏
+ */
+public class SalesRollupDAO {
+
+    // 下单时间截断到整点，与建表回填语句一致
+    private static final String BUCKET_EXPR = "DATE_FORMAT(order_date, '%Y-%m-%d %H:00:00')";
+
+    /**
+     * 按订单当前的下单时间、状态、金额把该订单计入 (sign = 1) 或移出 (sign = -1) 汇总
+     * 修改状态时先按旧状态移出、更新后再按新状态计入
+     * 汇总行是同一小时所有订单共享的热点行，调用方应尽量在事务最后一步调用，缩短持锁时间
+     * @return 订单不存在时返回 0
+     */
+    public int applyOrder(Connection conn, int orderId, int sign) throws SQLException {
+        String sql = "INSERT INTO sales_rollup (bucket_hour, order_status, order_count, sales_amount) " +
+                "SELECT " + BUCKET_EXPR + ", UPPER(order_status), ?, ? * total_amount FROM order_master WHERE order_id = ? " +
+                "ON DUPLICATE KEY UPDATE order_count = order_count + VALUES(order_count), " +
+                "sales_amount = sales_amount + VALUES(sales_amount)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, sign);
+            ps.setInt(2, sign);
+            ps.setInt(3, orderId);
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * 从 order_master 全量重建汇总表 (单个事务，使用独立连接，不受请求级事务影响)
+     * @return 重建后的汇总行数
+     */
+    public int rebuild() throws SQLException {
+        Connection conn = null;
+        try {
+            conn = DBUtil.getDedicatedConnection();
+            conn.setAutoCommit(false);
+            int rows;
+            try (Statement st = conn.createStatement()) {
+                st.executeUpdate("DELETE FROM sales_rollup");
+                rows = st.executeUpdate("INSERT INTO sales_rollup (bucket_hour, order_status, order_count, sales_amount) " +
+                        "SELECT " + BUCKET_EXPR + ", UPPER(order_status), COUNT(*), SUM(total_amount) FROM order_master " +
+                        "GROUP BY " + BUCKET_EXPR + ", UPPER(order_status)");
+            }
+            conn.commit();
+            System.out.println("销售统计汇总表重建完成，共 " + rows + " 行。");
+            return rows;
+        } catch (SQLException e) {
+            if (conn != null) {
+                try {
+                    conn.rollback();
+                } catch (SQLException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            throw e;
+        } finally {
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true);
+                    conn.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.mall.dao;
 
 import com.mall.util.DBUtil;
+import java.math.BigDecimal;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -15,22 +16,20 @@ public class StatsDAO {
     /**
      * 获取统计概览数据
      * @return 统计概览数据
+     * @throws SQLException 查询失败时抛出 (不返回空结果，避免失败被当作"没有数据"写入统计缓存)
      */
-    public Map<String, Object> getStatsOverview() {
+    public Map<String, Object> getStatsOverview() throws SQLException {
         Map<String, Object> overview = new HashMap<>();
         
         // 获取商品总数
         String productSql = "SELECT COUNT(*) as total FROM product WHERE is_deleted = 0";
-        // 获取订单总数
-        String orderSql = "SELECT COUNT(*) as total FROM order_master";
-        // 获取总收入
-        // 在getStatsOverview()方法中，修改revenueSql：
-        String revenueSql = "SELECT SUM(total_amount) as total FROM order_master WHERE order_status != 'CANCELLED'";
+        // 订单总数、总收入 (不含已取消)、待处理订单数：一次读取销售统计汇总表
+        String orderSql = "SELECT SUM(order_count) as total_orders, " +
+                "SUM(CASE WHEN order_status != 'CANCELLED' THEN sales_amount END) as total_revenue, " +
+                "SUM(CASE WHEN order_status = 'PENDING' THEN order_count END) as pending_orders " +
+                "FROM sales_rollup";
         
-        // 获取待处理订单数
-        String pendingSql = "SELECT COUNT(*) as total FROM order_master WHERE order_status = 'PENDING'";
-        
-        try (Connection conn = DBUtil.getConnection()) {
+        try (Connection conn = DBUtil.getReadConnection()) {
             // 获取商品总数
             try (PreparedStatement ps = conn.prepareStatement(productSql);
                  ResultSet rs = ps.executeQuery()) {
@@ -41,38 +40,16 @@ public class StatsDAO {
                 }
             }
             
-            // 获取订单总数
+            // 获取订单总数、总收入和待处理订单数
             try (PreparedStatement ps = conn.prepareStatement(orderSql);
                  ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    overview.put("totalOrders", rs.getInt("total"));
-                } else {
-                    overview.put("totalOrders", 0);
-                }
-            }
-            
-            // 获取总收入
-            try (PreparedStatement ps = conn.prepareStatement(revenueSql);
-                 ResultSet rs = ps.executeQuery()) {
-                if (rs.next() && rs.getBigDecimal("total") != null) {
-                    overview.put("totalRevenue", rs.getBigDecimal("total"));
-                } else {
-                    overview.put("totalRevenue", 0);
-                }
+                boolean found = rs.next();
+                overview.put("totalOrders", found ? rs.getInt("total_orders") : 0);
+                BigDecimal revenue = found ? rs.getBigDecimal("total_revenue") : null;
+                overview.put("totalRevenue", revenue != null ? revenue : 0);
+                overview.put("pendingOrders", found ? rs.getInt("pending_orders") : 0);
             }
             
-            // 获取待处理订单数
-            try (PreparedStatement ps = conn.prepareStatement(pendingSql);
-                 ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    overview.put("pendingOrders", rs.getInt("total"));
-                } else {
-                    overview.put("pendingOrders", 0);
-                }
-            }
-            
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         
         return overview;
@@ -83,16 +60,18 @@ public class StatsDAO {
      * @param startDate 开始日期 (格式: yyyy-MM-dd)
      * @param endDate 结束日期 (格式: yyyy-MM-dd)
      * @return 每日销售数据列表
+     * @throws SQLException 查询失败时抛出
      */
-    public List<Map<String, Object>> getDailySales(String startDate, String endDate) {
+    public List<Map<String, Object>> getDailySales(String startDate, String endDate) throws SQLException {
         List<Map<String, Object>> dailySales = new ArrayList<>();
-        // 在getDailySales()方法中，修改SQL查询：
-        String sql = "SELECT DATE(order_date) as sale_date, SUM(total_amount) as sales_amount, COUNT(*) as order_count " +
-                "FROM order_master " +
-                "WHERE DATE(order_date) BETWEEN ? AND ? AND order_status != 'CANCELLED' " +
-                "GROUP BY DATE(order_date) " +
+        // 读取按小时汇总的 sales_rollup，按主键范围扫描 [startDate, endDate + 1 天)
+        String sql = "SELECT DATE(bucket_hour) as sale_date, SUM(sales_amount) as sales_amount, SUM(order_count) as order_count " +
+                "FROM sales_rollup " +
+                "WHERE bucket_hour >= ? AND bucket_hour < DATE_ADD(?, INTERVAL 1 DAY) AND order_status != 'CANCELLED' " +
+                "GROUP BY DATE(bucket_hour) " +
+                "HAVING SUM(order_count) > 0 " +
                 "ORDER BY sale_date";
-        try (Connection conn = DBUtil.getConnection();
+        try (Connection conn = DBUtil.getReadConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
             ps.setString(1, startDate);
@@ -107,8 +86,6 @@ public class StatsDAO {
                     dailySales.add(sale);
                 }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return dailySales;
     }
@@ -117,19 +94,28 @@ public class StatsDAO {
      * 获取月度销售额统计
      * @param year 年份 (格式: yyyy)
      * @return 月度销售数据列表
+     * @throws SQLException 查询失败时抛出
      */
-    public List<Map<String, Object>> getMonthlySales(String year) {
+    public List<Map<String, Object>> getMonthlySales(String year) throws SQLException {
         List<Map<String, Object>> monthlySales = new ArrayList<>();
-        // 在getMonthlySales()方法中，修改SQL查询：
-        String sql = "SELECT MONTH(order_date) as month, SUM(total_amount) as sales_amount, COUNT(*) as order_count " +
-                "FROM order_master " +
-                "WHERE YEAR(order_date) = ? AND order_status != 'CANCELLED' " +
-                "GROUP BY MONTH(order_date) " +
+        int yearValue;
+        try {
+            yearValue = Integer.parseInt(year.trim());
+        } catch (NumberFormatException e) {
+            return monthlySales; // 无效年份没有数据
+        }
+        // 读取按小时汇总的 sales_rollup，按主键范围扫描 [year-01-01, year+1-01-01)
+        String sql = "SELECT MONTH(bucket_hour) as month, SUM(sales_amount) as sales_amount, SUM(order_count) as order_count " +
+                "FROM sales_rollup " +
+                "WHERE bucket_hour >= MAKEDATE(?, 1) AND bucket_hour < MAKEDATE(?, 1) AND order_status != 'CANCELLED' " +
+                "GROUP BY MONTH(bucket_hour) " +
+                "HAVING SUM(order_count) > 0 " +
                 "ORDER BY month";
-        try (Connection conn = DBUtil.getConnection();
+        try (Connection conn = DBUtil.getReadConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setString(1, year);
+            ps.setInt(1, yearValue);
+            ps.setInt(2, yearValue + 1);
 
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
@@ -140,34 +126,48 @@ public class StatsDAO {
                     monthlySales.add(sale);
                 }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return monthlySales;
     }
 
     /**
-     * 获取热销商品统计
-     * @param limit 商品数量限制
-     * @return 热销商品列表
+     * 获取热销商品排行 (不含已取消订单，精确统计)
+     * 热销榜优先由 TopSellersTracker 在内存中维护，这里用于它尚未就绪时的回退查询
+     * @param since 只统计该时间之后的订单，为 null 时统计全部历史
+     * @param limit 返回数量
      */
-    public List<Map<String, Object>> getTopSellingProducts(int limit) {
+    public List<Map<String, Object>> getTopSellingProducts(Timestamp since, int limit) throws SQLException {
+        return getTopSellingProducts(since, limit, null);
+    }
+
+    /**
+     * 获取热销商品排行，只统计订单ID不大于 maxOrderId 的订单 (为 null 时不限)，用于热销榜的定期重算
+     */
+    public List<Map<String, Object>> getTopSellingProducts(Timestamp since, int limit, Integer maxOrderId) throws SQLException {
         List<Map<String, Object>> topProducts = new ArrayList<>();
-        // 在getTopSellingProducts()方法中，修改SQL查询，添加订单状态过滤：
         String sql = "SELECT p.id, p.name, SUM(oi.quantity) as total_sales, " +
                 "SUM(oi.price_at_purchase * oi.quantity) as total_revenue " +
                 "FROM order_item oi " +
                 "JOIN product p ON oi.product_id = p.id " +
                 "JOIN order_master om ON oi.order_id = om.order_id " +
                 "WHERE om.order_status != 'CANCELLED' " +
+                (since != null ? "AND om.order_date >= ? " : "") +
+                (maxOrderId != null ? "AND om.order_id <= ? " : "") +
                 "GROUP BY p.id, p.name " +
                 "ORDER BY total_sales DESC " +
                 "LIMIT ?";
 
-        try (Connection conn = DBUtil.getConnection();
+        try (Connection conn = DBUtil.getReadConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
-            ps.setInt(1, limit);
+            int index = 1;
+            if (since != null) {
+                ps.setTimestamp(index++, since);
+            }
+            if (maxOrderId != null) {
+                ps.setInt(index++, maxOrderId);
+            }
+            ps.setInt(index, limit);
 
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
@@ -179,54 +179,94 @@ public class StatsDAO {
                     topProducts.add(product);
                 }
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return topProducts;
     }
 
+    /**
+     * 当前最大的订单ID (没有订单时为 0)，热销榜重算以它为界区分已查询和需要重放的订单
+     */
+    public int getMaxOrderId() throws SQLException {
+        String sql = "SELECT COALESCE(MAX(order_id), 0) FROM order_master";
+        try (Connection conn = DBUtil.getReadConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * 按时间桶和商品汇总 since 之后、订单ID不大于 maxOrderId 的销量 (不含已取消订单)，用于热销榜时间窗口的重算
+     * @param bucketSeconds 时间桶长度 (秒)，下单时间向下取整到桶的起点
+     * @return 每行包含 bucketStart, productId, productName, totalSales, totalRevenue
+     */
+    public List<Map<String, Object>> getProductSalesByBucket(Timestamp since, int bucketSeconds, int maxOrderId) throws SQLException {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        String bucketExpr = "FROM_UNIXTIME(FLOOR(UNIX_TIMESTAMP(om.order_date) / ?) * ?)";
+        String sql = "SELECT " + bucketExpr + " as bucket_start, p.id, p.name, SUM(oi.quantity) as total_sales, " +
+                "SUM(oi.price_at_purchase * oi.quantity) as total_revenue " +
+                "FROM order_item oi " +
+                "JOIN product p ON oi.product_id = p.id " +
+                "JOIN order_master om ON oi.order_id = om.order_id " +
+                "WHERE om.order_status != 'CANCELLED' AND om.order_date >= ? AND om.order_id <= ? " +
+                "GROUP BY bucket_start, p.id, p.name";
+
+        try (Connection conn = DBUtil.getReadConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+
+            ps.setInt(1, bucketSeconds);
+            ps.setInt(2, bucketSeconds);
+            ps.setTimestamp(3, since);
+            ps.setInt(4, maxOrderId);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Map<String, Object> row = new HashMap<>();
+                    row.put("bucketStart", rs.getTimestamp("bucket_start"));
+                    row.put("productId", rs.getInt("id"));
+                    row.put("productName", rs.getString("name"));
+                    row.put("totalSales", rs.getInt("total_sales"));
+                    row.put("totalRevenue", rs.getBigDecimal("total_revenue"));
+                    rows.add(row);
+                }
+            }
+        }
+        return rows;
+    }
+
     /**
      * 获取订单状态统计
      * @return 订单状态统计列表
+     * @throws SQLException 查询失败时抛出
      */
-    public List<Map<String, Object>> getOrderStatusStats() {
+    public List<Map<String, Object>> getOrderStatusStats() throws SQLException {
         List<Map<String, Object>> statusStats = new ArrayList<>();
         
-        // 先获取所有订单总数
-        String totalSql = "SELECT COUNT(*) as total FROM order_master";
-        int totalOrders = 0;
+        // 各状态订单数 (读取销售统计汇总表，状态已统一为大写)
+        String statusSql = "SELECT order_status, SUM(order_count) as count " +
+                "FROM sales_rollup " +
+                "GROUP BY order_status " +
+                "HAVING SUM(order_count) > 0";
         
-        try (Connection conn = DBUtil.getConnection()) {
-            // 获取总订单数
-            try (PreparedStatement ps = conn.prepareStatement(totalSql);
-                 ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    totalOrders = rs.getInt("total");
-                }
+        try (Connection conn = DBUtil.getReadConnection();
+             PreparedStatement ps = conn.prepareStatement(statusSql);
+             ResultSet rs = ps.executeQuery()) {
+
+            int totalOrders = 0;
+            while (rs.next()) {
+                Map<String, Object> stat = new HashMap<>();
+                stat.put("orderStatus", rs.getString("order_status"));
+                stat.put("count", rs.getInt("count"));
+                totalOrders += rs.getInt("count");
+                statusStats.add(stat);
             }
-            
-            // 获取各状态订单数
-            String statusSql = "SELECT order_status as order_status, COUNT(*) as count " +
-                    "FROM order_master " +
-                    "GROUP BY order_status";
-            
-            try (PreparedStatement ps = conn.prepareStatement(statusSql);
-                 ResultSet rs = ps.executeQuery()) {
 
-                while (rs.next()) {
-                    Map<String, Object> stat = new HashMap<>();
-                    stat.put("orderStatus", rs.getString("order_status"));
-                    stat.put("count", rs.getInt("count"));
-                    
-                    // 计算百分比
-                    double percentage = totalOrders > 0 ? (double) rs.getInt("count") / totalOrders * 100 : 0;
-                    stat.put("percentage", percentage);
-                    
-                    statusStats.add(stat);
-                }
+            // 计算百分比
+            for (Map<String, Object> stat : statusStats) {
+                int count = (Integer) stat.get("count");
+                double percentage = totalOrders > 0 ? (double) count / totalOrders * 100 : 0;
+                stat.put("percentage", percentage);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
         return statusStats;
     }
@@ -1,6 +1,7 @@
 package com.mall.filter;
 
 import com.google.gson.Gson;
+import com.mall.stats.StreamTickets;
 import com.mall.util.JWTUtil;
 
 import jakarta.servlet.*;
@@ -33,7 +34,8 @@ public class AuthFilter implements Filter {
         // ⭐ 1. 【新增】处理 CORS 预检请求 (OPTIONS) 和设置 CORS 头部
         resp.setHeader("Access-Control-Allow-Origin", "http://localhost:8081"); // 允许你的前端地址
         resp.setHeader("Access-Control-Allow-Methods", "POST, GET, PUT, DELETE, OPTIONS");
-        resp.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization"); // 允许 JWT Token 头部
+        resp.setHeader("Access-Control-Allow-Headers", "Content-Type, Authorization, Idempotency-Key"); // 允许 JWT Token 头部和下单幂等键
+        resp.setHeader("Access-Control-Expose-Headers", "Idempotent-Replayed");
         resp.setHeader("Access-Control-Allow-Credentials", "true"); // 允许携带 Cookie/Session
 
         // 如果请求是 OPTIONS，这说明是预检请求，直接返回 200/204 状态码，不进入过滤器链。
@@ -52,10 +54,14 @@ public class AuthFilter implements Filter {
         System.out.println("--- AuthFilter 拦截请求: " + requestPath);
 
 // 1. 首先检查是否需要放行（重要：放在Token验证之前）
-// 放行登录/注册、根路径、index.jsp和产品的GET请求
+// 放行登录/注册、根路径、index.jsp和产品的GET请求（商品缓存管理接口除外），以及商品批量查询
+        String pathInfo = req.getPathInfo();
+        boolean productAdminPath = pathInfo != null && pathInfo.startsWith("/cache");
+        boolean productBatchPath = "/batch".equals(pathInfo) && "POST".equalsIgnoreCase(req.getMethod());
 if (requestPath.equals("/") || requestPath.endsWith("/index.jsp") || 
         requestPath.endsWith("/login") || requestPath.endsWith("/register") ||
-        (requestPath.startsWith("/product") && "GET".equalsIgnoreCase(req.getMethod()))) {
+        (requestPath.startsWith("/product") && "GET".equalsIgnoreCase(req.getMethod()) && !productAdminPath) ||
+        (requestPath.startsWith("/product") && productBatchPath)) {
     System.out.println("--- AuthFilter 放行请求: " + requestPath);
     chain.doFilter(request, response);
     return;
@@ -64,6 +70,22 @@ if (requestPath.equals("/") || requestPath.endsWith("/index.jsp") ||
 // 2. 其他请求需要进行Token验证
 // 获取Token
         String authHeader = req.getHeader("Authorization");
+        // 浏览器的 EventSource 不能设置请求头，统计事件流 (GET /stats/stream) 用一次性票据认证，不在 URL 中传递Token
+        if (authHeader == null && requestPath.startsWith("/stats") && "/stream".equals(pathInfo)
+                && "GET".equalsIgnoreCase(req.getMethod()) && req.getParameter("ticket") != null) {
+            StreamTickets.Ticket ticket = StreamTickets.getInstance().redeem(req.getParameter("ticket"));
+            if (ticket == null) {
+                System.err.println("--- AuthFilter 失败: 统计事件流票据无效、已使用或已过期");
+                sendErrorResponse(resp, HttpServletResponse.SC_UNAUTHORIZED, "票据无效或已过期，请重新连接。");
+                return;
+            }
+            System.out.println("--- AuthFilter 成功(票据): User ID: " + ticket.getUserId() + ", Is Admin: " + ticket.isAdmin());
+            req.setAttribute("userId", ticket.getUserId());
+            req.setAttribute("username", ticket.getUsername());
+            req.setAttribute("isAdmin", ticket.isAdmin());
+            chain.doFilter(request, response);
+            return;
+        }
         if (authHeader == null || !authHeader.startsWith("Bearer ")) {
             System.err.println("--- AuthFilter 失败: 无Token或格式错误");
             sendErrorResponse(resp, HttpServletResponse.SC_UNAUTHORIZED, "请求被拒绝，请携带有效的认证Token。");
@@ -71,7 +93,6 @@ if (requestPath.equals("/") || requestPath.endsWith("/index.jsp") ||
         }
 
         String token = authHeader.substring(7);
-        System.out.println("--- AuthFilter 提取Token: " + token);
 
 // 3. 验证Token（关键：捕获所有异常）
         try {
@@ -0,0 +1,70 @@
+package com.mall.filter;
+
+import com.mall.util.UnitOfWork;
+
+import jakarta.servlet.*;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 请求级工作单元过滤器，配置在 AuthFilter 之后
+ * 为每个请求绑定一个 UnitOfWork，使同一请求内的所有 DAO 调用共享一个数据库连接。
+ * 非 GET 请求 (只读的 POST /product/batch 除外) 视为写请求，请求内及结束后短时间内该用户的读操作都走主库。
+ *
+ * init-param transactionalMethods：逗号分隔的 HTTP 方法 (如 POST,PUT,DELETE)，
+ * 这些请求整体运行在一个事务中，响应状态码 >= 400 或抛出异常时回滚。默认不开启。
+ */
+public class UnitOfWorkFilter implements Filter {
+
+    private final Set<String> transactionalMethods = new HashSet<>();
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        String methods = filterConfig.getInitParameter("transactionalMethods");
+        if (methods != null) {
+            for (String method : methods.split(",")) {
+                if (!method.trim().isEmpty()) {
+                    transactionalMethods.add(method.trim().toUpperCase());
+                }
+            }
+        }
+        System.out.println("=== UnitOfWorkFilter 初始化成功，事务方法: " + transactionalMethods + " ===");
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+
+        HttpServletRequest req = (HttpServletRequest) request;
+        HttpServletResponse resp = (HttpServletResponse) response;
+
+        String method = req.getMethod().toUpperCase();
+        boolean writeRequest = !method.equals("GET") && !method.equals("HEAD") && !isReadOnlyPost(req);
+        // userId 由 AuthFilter 写入，匿名请求为 null
+        String userKey = (String) req.getAttribute("userId");
+
+        UnitOfWork uow = UnitOfWork.begin(transactionalMethods.contains(method), writeRequest, userKey);
+        boolean success = false;
+        try {
+            chain.doFilter(request, response);
+            success = resp.getStatus() < 400;
+        } finally {
+            uow.end(success);
+        }
+    }
+
+    // 用 POST 传参的只读接口 (ID 列表过长不便放在 URL 中)
+    private boolean isReadOnlyPost(HttpServletRequest req) {
+        return req.getMethod().equalsIgnoreCase("POST")
+                && "/product".equals(req.getServletPath()) && "/batch".equals(req.getPathInfo());
+    }
+
+    @Override
+    public void destroy() {
+        System.out.println("=== UnitOfWorkFilter 销毁 ===");
+    }
+}
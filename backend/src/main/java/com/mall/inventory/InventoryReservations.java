@@ -0,0 +1,299 @@
+package com.mall.inventory;
+
+import com.mall.dao.ProductDAO;
+import com.mall.model.OrderItem;
+import com.mall.util.AppConfig;
+import com.mall.util.Metrics;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 库存预占引擎 (进程内)
+ * 每个商品一个原子库存计数器，首次下单时从 product.stock_quantity 加载。下单时先在内存中预占库存，
+ * 库存不足立即拒绝，不再访问数据库；预占成功的订单才进入数据库事务，事务中的 stock_quantity >= ? 条件仍然保留作为最终保障。
+ * 事务失败时释放预占；后台定时按数据库库存校准计数器 (覆盖其他实例下单、直接改库、请求级事务回滚等情况)。
+ * 校准只把差额原子地加到计数器上，不覆盖校准期间发生的预占、提交和释放。
+ */
+public class InventoryReservations {
+
+    private static final boolean ENABLED = AppConfig.getBoolean("INVENTORY_RESERVATION_ENABLED", true);
+    // 校准间隔 (毫秒)
+    private static final long RECONCILE_INTERVAL = AppConfig.getLong("INVENTORY_RECONCILE_MS", 60000);
+    // 校准时单条 IN 查询最多的商品数
+    private static final int RECONCILE_BATCH_SIZE = 1000;
+
+    // 构造函数用到上面的配置，必须在配置之后创建
+    private static final InventoryReservations INSTANCE = new InventoryReservations();
+
+    // 单个商品的计数器：可售库存 + 已预占但尚未提交到数据库的数量
+    private static class Counter {
+        // 高 32 位为可售库存，低 32 位为已预占数量，两者一起原子更新，校准时才能读到一致的快照
+        final AtomicLong state;
+        // 开始/完成的校准次数，用于判断一次预占是否跨越了校准
+        final AtomicInteger reconcilesStarted = new AtomicInteger();
+        final AtomicInteger reconcilesFinished = new AtomicInteger();
+
+        Counter(int stock) {
+            this.state = new AtomicLong(pack(stock, 0));
+        }
+
+        boolean tryTake(int quantity) {
+            while (true) {
+                long current = state.get();
+                int available = available(current);
+                if (available < quantity) {
+                    return false;
+                }
+                if (state.compareAndSet(current, pack(available - quantity, inFlight(current) + quantity))) {
+                    return true;
+                }
+            }
+        }
+
+        void add(int availableDelta, int inFlightDelta) {
+            while (true) {
+                long current = state.get();
+                long next = pack(available(current) + availableDelta, inFlight(current) + inFlightDelta);
+                if (state.compareAndSet(current, next)) {
+                    return;
+                }
+            }
+        }
+
+        // 可售 + 已预占：预占和释放都不改变这个值，只有提交 (数据库库存扣减) 和校准会改变
+        int total() {
+            long current = state.get();
+            return available(current) + inFlight(current);
+        }
+
+        static long pack(int available, int inFlight) {
+            return ((long) available << 32) | (inFlight & 0xFFFFFFFFL);
+        }
+
+        static int available(long state) {
+            return (int) (state >> 32);
+        }
+
+        static int inFlight(long state) {
+            return (int) state;
+        }
+    }
+
+    /**
+     * 一次预占：商品ID -> 数量。提交成功后调用 confirm，失败后调用 release
+     */
+    public static class Reservation {
+        private static final Reservation UNTRACKED =
+                new Reservation(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
+
+        private final Map<Integer, Integer> quantities;
+        private final Map<Integer, Counter> counters;
+        // 预占时各计数器已完成的校准次数
+        private final Map<Integer, Integer> reconciles;
+
+        private Reservation(Map<Integer, Integer> quantities, Map<Integer, Counter> counters, Map<Integer, Integer> reconciles) {
+            this.quantities = quantities;
+            this.counters = counters;
+            this.reconciles = reconciles;
+        }
+    }
+
+    /**
+     * 批量读取数据库库存：商品ID -> 库存 (不存在或已删除的商品不出现在结果中)
+     */
+    interface StockLoader {
+        Map<Integer, Integer> load(List<Integer> productIds) throws SQLException;
+    }
+
+    private final StockLoader stockLoader;
+    private final Map<Integer, Counter> counters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "inventory-reconciler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private InventoryReservations() {
+        this(new ProductDAO()::getStockQuantities);
+        if (ENABLED) {
+            reconciler.scheduleWithFixedDelay(this::reconcile, RECONCILE_INTERVAL, RECONCILE_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        Metrics.registerGauge("inventory.trackedProducts", counters::size);
+    }
+
+    // 不启动定时校准，供单元测试使用
+    InventoryReservations(StockLoader stockLoader) {
+        this.stockLoader = stockLoader;
+    }
+
+    public static InventoryReservations getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 为订单预占库存，全部商品都够才成功 (按商品ID顺序预占，失败时回退已预占的部分)
+     * @return 预占结果；库存不足或商品不存在时返回 null
+     */
+    public Reservation reserve(List<OrderItem> items) {
+        if (!ENABLED) {
+            return Reservation.UNTRACKED;
+        }
+        Map<Integer, Integer> quantities = new TreeMap<>();
+        for (OrderItem item : items) {
+            quantities.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+        }
+
+        try {
+            seed(quantities.keySet());
+        } catch (SQLException e) {
+            // 无法加载库存时不拦截，交给数据库事务判断
+            e.printStackTrace();
+            return Reservation.UNTRACKED;
+        }
+
+        Map<Integer, Counter> taken = new TreeMap<>();
+        Map<Integer, Integer> reconciles = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+            Counter counter = counters.get(entry.getKey());
+            if (counter == null) {
+                rollback(quantities, taken);
+                return null;
+            }
+            // 先读校准次数再预占：读到的次数只会偏小，提交时宁可多归还
+            int reconciled = counter.reconcilesFinished.get();
+            if (!counter.tryTake(entry.getValue())) {
+                rollback(quantities, taken);
+                return null;
+            }
+            taken.put(entry.getKey(), counter);
+            reconciles.put(entry.getKey(), reconciled);
+        }
+        Metrics.increment("inventory.reserve.accepted");
+        return new Reservation(quantities, taken, reconciles);
+    }
+
+    /**
+     * 数据库事务已提交：预占转为已售 (数据库库存已扣减)
+     * 预占期间有校准读取过数据库时，无法知道读取发生在提交之前还是之后；校准按"尚未提交"扣过一次预占，
+     * 若提交其实在读取之前，这次扣减就重复了。此时按已计入处理，把数量归还给可售库存：
+     * 最多多估这笔订单的数量，由数据库事务的库存条件兜底，下次校准修正；不会误拒最后几件库存。
+     */
+    public void confirm(Reservation reservation) {
+        for (Map.Entry<Integer, Counter> entry : reservation.counters.entrySet()) {
+            Counter counter = entry.getValue();
+            int quantity = reservation.quantities.get(entry.getKey());
+            boolean crossedReconcile = counter.reconcilesStarted.get() > reservation.reconciles.get(entry.getKey());
+            counter.add(crossedReconcile ? quantity : 0, -quantity);
+        }
+    }
+
+    /**
+     * 数据库事务失败：归还预占的库存
+     */
+    public void release(Reservation reservation) {
+        for (Map.Entry<Integer, Counter> entry : reservation.counters.entrySet()) {
+            int quantity = reservation.quantities.get(entry.getKey());
+            entry.getValue().add(quantity, -quantity);
+        }
+        if (!reservation.counters.isEmpty()) {
+            Metrics.increment("inventory.reserve.released");
+        }
+    }
+
+    /**
+     * 商品库存被管理员修改/删除：丢弃计数器，下次下单时重新从数据库加载
+     */
+    public void forget(int productId) {
+        counters.remove(productId);
+    }
+
+    public void forgetAll() {
+        counters.clear();
+    }
+
+    /**
+     * 按数据库库存校准所有计数器：可售 = 数据库库存 - 尚未提交的预占
+     * 读数据库之前记下每个计数器的 可售 + 已预占，读完后把与数据库库存的差额一次性加到可售上，
+     * 校准期间的预占、释放、提交照常生效；跨越校准提交的预占见 confirm。
+     */
+    public void reconcile() {
+        Map<Integer, Counter> tracked = new HashMap<>(counters);
+        if (tracked.isEmpty()) {
+            return;
+        }
+        Map<Integer, Integer> totals = new HashMap<>();
+        for (Map.Entry<Integer, Counter> entry : tracked.entrySet()) {
+            entry.getValue().reconcilesStarted.incrementAndGet();
+            totals.put(entry.getKey(), entry.getValue().total());
+        }
+        try {
+            List<Integer> productIds = new ArrayList<>(tracked.keySet());
+            Map<Integer, Integer> stocks = new HashMap<>();
+            for (int from = 0; from < productIds.size(); from += RECONCILE_BATCH_SIZE) {
+                stocks.putAll(stockLoader.load(
+                        productIds.subList(from, Math.min(from + RECONCILE_BATCH_SIZE, productIds.size()))));
+            }
+            for (Map.Entry<Integer, Counter> entry : tracked.entrySet()) {
+                Integer stock = stocks.get(entry.getKey());
+                if (stock == null) {
+                    counters.remove(entry.getKey(), entry.getValue()); // 商品已删除
+                    continue;
+                }
+                entry.getValue().add(stock - totals.get(entry.getKey()), 0);
+            }
+            Metrics.increment("inventory.reconcile.runs");
+        } catch (SQLException e) {
+            System.err.println("库存计数器校准失败: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // 定时任务抛出异常会停止后续调度
+            e.printStackTrace();
+        } finally {
+            // 失败的校准同样计数：跨越它提交的预占会多归还一次，只会多估，下次校准修正
+            for (Counter counter : tracked.values()) {
+                counter.reconcilesFinished.incrementAndGet();
+            }
+        }
+    }
+
+    public void shutdown() {
+        reconciler.shutdownNow();
+    }
+
+    // 为尚未加载的商品从数据库加载库存 (一次 IN 查询)
+    private void seed(Iterable<Integer> productIds) throws SQLException {
+        List<Integer> missing = new ArrayList<>();
+        for (Integer productId : productIds) {
+            if (!counters.containsKey(productId)) {
+                missing.add(productId);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        Map<Integer, Integer> stocks = stockLoader.load(missing);
+        for (Map.Entry<Integer, Integer> entry : stocks.entrySet()) {
+            counters.putIfAbsent(entry.getKey(), new Counter(entry.getValue()));
+        }
+    }
+
+    // 回退已预占的商品
+    private static void rollback(Map<Integer, Integer> quantities, Map<Integer, Counter> taken) {
+        for (Map.Entry<Integer, Counter> done : taken.entrySet()) {
+            int quantity = quantities.get(done.getKey());
+            done.getValue().add(quantity, -quantity);
+        }
+        Metrics.increment("inventory.reserve.rejected");
+    }
+}
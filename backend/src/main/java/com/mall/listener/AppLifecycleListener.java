@@ -0,0 +1,56 @@
+package com.mall.listener;
+
+import com.mall.cache.CatalogSnapshot;
+import com.mall.cache.StatsCache;
+import com.mall.dao.OrderGroupCommitter;
+import com.mall.dao.ProductDAO;
+import com.mall.inventory.InventoryReservations;
+import com.mall.mail.EmailOutboxDispatcher;
+import com.mall.stats.StatsBroadcaster;
+import com.mall.stats.TopSellersTracker;
+import com.mall.util.DBUtil;
+import com.mall.util.PostCommitExecutor;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+
+/**
+ * 应用生命周期监听器
+ * 负责在应用启动/停止时初始化和释放全局资源 (连接池、检索索引等)
+ */
+public class AppLifecycleListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        System.out.println("=== 应用启动 ===");
+
+        // 构建商品检索索引，数据库暂不可用时在首次检索时重试
+        if (!new ProductDAO().rebuildSearchIndex()) {
+            System.err.println("商品检索索引构建失败，将在首次检索时重试。");
+        }
+        // 后台预生成商品列表快照
+        CatalogSnapshot.getInstance().requestRebuild();
+        // 启动事务后异步任务执行器
+        PostCommitExecutor.getInstance();
+        // 启动发件箱发送线程 (补发上次停止前未发送的邮件)
+        EmailOutboxDispatcher.getInstance();
+        // 后台从数据库统计热销商品榜，之后由下单和取消订单增量更新
+        TopSellersTracker.getInstance();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        System.out.println("=== 应用停止，释放资源 ===");
+        // 先提交队列中剩余的订单，再关闭连接池
+        OrderGroupCommitter.getInstance().shutdown();
+        // 等待已排队的事务后任务完成 (任务中可能查询数据库)
+        PostCommitExecutor.getInstance().shutdown();
+        EmailOutboxDispatcher.getInstance().shutdown();
+        CatalogSnapshot.getInstance().shutdown();
+        // 先断开统计推送连接，再关闭它用到的统计缓存
+        StatsBroadcaster.getInstance().shutdown();
+        StatsCache.getInstance().shutdown();
+        TopSellersTracker.getInstance().shutdown();
+        InventoryReservations.getInstance().shutdown();
+        DBUtil.shutdown();
+    }
+}
@@ -0,0 +1,181 @@
+package com.mall.mail;
+
+import com.mall.dao.EmailOutboxDAO;
+import com.mall.util.AppConfig;
+import com.mall.util.EmailUtil;
+import com.mall.util.Metrics;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 邮件发件箱后台发送线程
+ * 批量领取 email_outbox 中到期的邮件，多封邮件复用同一个已认证的 SMTP 连接发送 (空闲时关闭)；
+ * 发送失败按指数退避重试，超过 EMAIL_OUTBOX_MAX_ATTEMPTS 次标记为 FAILED。
+ * 下单提交后调用 wakeUp() 立即发送，否则每 EMAIL_OUTBOX_POLL_MS 毫秒轮询一次
+ */
+public class EmailOutboxDispatcher {
+
+    // 关闭后只写入发件箱不发送 (例如只让部分实例负责发信)
+    private static final boolean ENABLED = AppConfig.getBoolean("EMAIL_OUTBOX_DISPATCHER_ENABLED", true);
+    private static final long POLL_INTERVAL = AppConfig.getLong("EMAIL_OUTBOX_POLL_MS", 5000);
+    private static final int BATCH_SIZE = AppConfig.getInt("EMAIL_OUTBOX_BATCH_SIZE", 50);
+    private static final int MAX_ATTEMPTS = AppConfig.getInt("EMAIL_OUTBOX_MAX_ATTEMPTS", 6);
+    // 重试退避：基数 (秒)，每次失败翻倍，最多 1 小时
+    private static final long RETRY_BASE_SECONDS = AppConfig.getLong("EMAIL_OUTBOX_RETRY_BASE_SECONDS", 30);
+    private static final long MAX_RETRY_DELAY_SECONDS = 3600;
+    // 领取后超过该时间仍未标记结果 (发送进程崩溃) 的邮件可被重新领取
+    private static final long CLAIM_TIMEOUT_SECONDS = 300;
+
+    // 构造函数用到上面的配置，必须在配置之后创建
+    private static final EmailOutboxDispatcher INSTANCE = new EmailOutboxDispatcher();
+
+    private final EmailOutboxDAO outboxDAO = new EmailOutboxDAO();
+    private final Object signal = new Object();
+    private boolean wakeRequested;
+    private volatile boolean running;
+    private Thread worker;
+
+    // 仅由发送线程访问
+    private Session session;
+    private Transport transport;
+
+    private EmailOutboxDispatcher() {
+        if (ENABLED) {
+            running = true;
+            worker = new Thread(this::run, "email-outbox");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    public static EmailOutboxDispatcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 有新邮件写入发件箱 (事务已提交)：唤醒发送线程
+     */
+    public void wakeUp() {
+        synchronized (signal) {
+            wakeRequested = true;
+            signal.notifyAll();
+        }
+    }
+
+    public void shutdown() {
+        if (worker == null) {
+            return;
+        }
+        running = false;
+        wakeUp();
+        try {
+            worker.join(10000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            int claimed = 0;
+            try {
+                claimed = dispatchBatch();
+            } catch (SQLException e) {
+                System.err.println("领取发件箱邮件失败: " + e.getMessage());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            if (claimed < BATCH_SIZE) {
+                // 没有积压：关闭 SMTP 连接，避免被服务器空闲断开，等待下一次唤醒或轮询
+                closeTransport();
+                waitForWork();
+            }
+        }
+        closeTransport();
+    }
+
+    // 领取并发送一批邮件，返回领取的数量
+    private int dispatchBatch() throws SQLException {
+        List<Map<String, Object>> emails = outboxDAO.claimBatch(BATCH_SIZE, CLAIM_TIMEOUT_SECONDS, MAX_ATTEMPTS);
+        if (emails.isEmpty()) {
+            return 0;
+        }
+
+        List<Long> sentIds = new ArrayList<>();
+        for (Map<String, Object> email : emails) {
+            long id = (Long) email.get("id");
+            try {
+                send((String) email.get("recipient"), (String) email.get("subject"), (String) email.get("body"));
+                sentIds.add(id);
+                Metrics.increment("emailOutbox.sent");
+            } catch (MessagingException e) {
+                // 连接可能已失效，下一封重新连接
+                closeTransport();
+                recordFailure(id, (Integer) email.get("attempts") + 1, e);
+            }
+        }
+        // 标记失败时这些邮件会在领取超时后重发 (至少一次)
+        outboxDAO.markSent(sentIds);
+        return emails.size();
+    }
+
+    private void send(String recipient, String subject, String body) throws MessagingException {
+        if (session == null) {
+            session = EmailUtil.createSession();
+        }
+        if (transport == null) {
+            Transport newTransport = session.getTransport("smtp");
+            newTransport.connect();
+            transport = newTransport;
+            Metrics.increment("emailOutbox.connections");
+        }
+        Message message = EmailUtil.createMessage(session, recipient, subject, body);
+        message.saveChanges();
+        transport.sendMessage(message, message.getAllRecipients());
+    }
+
+    private void recordFailure(long id, int attempts, MessagingException e) {
+        boolean giveUp = attempts >= MAX_ATTEMPTS;
+        long delay = Math.min(RETRY_BASE_SECONDS << Math.min(attempts - 1, 20), MAX_RETRY_DELAY_SECONDS);
+        System.err.println("发送邮件失败 (发件箱ID: " + id + "，第 " + attempts + " 次)"
+                + (giveUp ? "，不再重试: " : "，" + delay + " 秒后重试: ") + e.getMessage());
+        Metrics.increment(giveUp ? "emailOutbox.gaveUp" : "emailOutbox.failed");
+        try {
+            outboxDAO.markFailed(id, e.getMessage(), giveUp, delay);
+        } catch (SQLException ex) {
+            System.err.println("记录邮件发送失败出错: " + ex.getMessage());
+        }
+    }
+
+    private void waitForWork() {
+        synchronized (signal) {
+            if (!wakeRequested && running) {
+                try {
+                    signal.wait(POLL_INTERVAL);
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+            }
+            wakeRequested = false;
+        }
+    }
+
+    private void closeTransport() {
+        if (transport == null) {
+            return;
+        }
+        try {
+            transport.close();
+        } catch (MessagingException e) {
+            // 连接已断开，忽略
+        }
+        transport = null;
+    }
+}
@@ -0,0 +1,50 @@
+package com.mall.mail;
+
+import com.mall.model.OrderItem;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * 订单确认邮件模板 (纯文本)
+ */
+public class OrderConfirmationEmail {
+
+    public static String subject(int orderId) {
+        return "订单确认 - 订单号：" + orderId;
+    }
+
+    public static String body(int orderId, BigDecimal totalAmount, String shippingAddress, List<OrderItem> orderItems) {
+        StringBuilder emailContent = new StringBuilder();
+        emailContent.append("亲爱的顾客：\n\n");
+        emailContent.append("感谢您的订单！以下是您的订单详情：\n\n");
+        emailContent.append("订单号：").append(orderId).append("\n");
+        emailContent.append("总金额：￥").append(totalAmount).append("\n");
+        emailContent.append("收货地址：").append(shippingAddress).append("\n\n");
+        emailContent.append("订单商品：\n");
+        emailContent.append("----------------------------------------\n");
+        emailContent.append("商品名称\t\t数量\t单价\t小计\n");
+        emailContent.append("----------------------------------------\n");
+
+        for (OrderItem item : orderItems) {
+            BigDecimal itemTotal = item.getPriceAtOrder().multiply(new BigDecimal(item.getQuantity()));
+            emailContent.append(item.getProductName())
+                    .append("\t\t")
+                    .append(item.getQuantity())
+                    .append("\t")
+                    .append("￥")
+                    .append(item.getPriceAtOrder())
+                    .append("\t")
+                    .append("￥")
+                    .append(itemTotal)
+                    .append("\n");
+        }
+
+        emailContent.append("----------------------------------------\n");
+        emailContent.append("总计：￥").append(totalAmount).append("\n\n");
+        emailContent.append("我们将尽快为您处理订单。如有任何问题，请随时联系我们。\n\n");
+        emailContent.append("此致\n");
+        emailContent.append("商城团队\n");
+        return emailContent.toString();
+    }
+}
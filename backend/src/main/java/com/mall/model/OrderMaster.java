@@ -14,6 +14,7 @@ public class OrderMaster {
     private BigDecimal totalAmount;
     private String shippingAddress;
     private String status; // 例如：PENDING, PAID, SHIPPED
+    private transient String idempotencyKey; // 下单请求的 Idempotency-Key，只在创建订单时使用
 
     // 组合关系：一个订单包含多个订单项
     private List<OrderItem> items;
@@ -34,4 +35,6 @@ public class OrderMaster {
     public void setStatus(String status) { this.status = status; }
     public List<OrderItem> getItems() { return items; }
     public void setItems(List<OrderItem> items) { this.items = items; }
+    public String getIdempotencyKey() { return idempotencyKey; }
+    public void setIdempotencyKey(String idempotencyKey) { this.idempotencyKey = idempotencyKey; }
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package com.mall.model;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 管理员订单检索条件 (GET /order/search 的筛选与键集分页参数)
+ * 固定按 (order_date, order_id) 倒序，游标为上一页最后一条订单的下单时间和订单ID
+ */
+public class OrderQuery {
+
+    private List<String> statuses = new ArrayList<>();
+    private Timestamp from;      // 下单时间下限 (含)
+    private Timestamp to;        // 下单时间上限 (不含)
+    private Integer customerId;
+    private BigDecimal minAmount;
+    private BigDecimal maxAmount;
+    private int limit = 20;
+    private boolean includeItems;
+
+    // 游标：上一页最后一条订单的下单时间和订单ID，首页为 null
+    private Timestamp cursorDate;
+    private Long cursorId;
+
+    public List<String> getStatuses() { return statuses; }
+    public void setStatuses(List<String> statuses) { this.statuses = statuses; }
+    public Timestamp getFrom() { return from; }
+    public void setFrom(Timestamp from) { this.from = from; }
+    public Timestamp getTo() { return to; }
+    public void setTo(Timestamp to) { this.to = to; }
+    public Integer getCustomerId() { return customerId; }
+    public void setCustomerId(Integer customerId) { this.customerId = customerId; }
+    public BigDecimal getMinAmount() { return minAmount; }
+    public void setMinAmount(BigDecimal minAmount) { this.minAmount = minAmount; }
+    public BigDecimal getMaxAmount() { return maxAmount; }
+    public void setMaxAmount(BigDecimal maxAmount) { this.maxAmount = maxAmount; }
+    public int getLimit() { return limit; }
+    public void setLimit(int limit) { this.limit = limit; }
+    public boolean isIncludeItems() { return includeItems; }
+    public void setIncludeItems(boolean includeItems) { this.includeItems = includeItems; }
+    public Timestamp getCursorDate() { return cursorDate; }
+    public void setCursorDate(Timestamp cursorDate) { this.cursorDate = cursorDate; }
+    public Long getCursorId() { return cursorId; }
+    public void setCursorId(Long cursorId) { this.cursorId = cursorId; }
+}
@@ -0,0 +1,64 @@
+package com.mall.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 商品批量导入结果 (POST /api/product/import 的响应数据)
+ * 逐行记录失败原因，错误明细超过上限后只计数不再记录
+ */
+public class ProductImportReport {
+
+    private static final int MAX_ERRORS = 1000;
+
+    /**
+     * 单行错误：行号为原始输入中的行号 (CSV 表头为第 1 行)
+     */
+    public static class RowError {
+        private final int line;
+        private final String message;
+
+        RowError(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        public int getLine() { return line; }
+        public String getMessage() { return message; }
+    }
+
+    private int total;       // 读取的数据行数
+    private int inserted;    // 新建的商品数
+    private int updated;     // 更新 (累加库存) 的已有商品数
+    private int failed;      // 失败行数
+    private boolean errorsTruncated;
+    private final List<RowError> errors = new ArrayList<>();
+
+    public void addRow() {
+        total++;
+    }
+
+    public void addInserted(int count) {
+        inserted += count;
+    }
+
+    public void addUpdated(int count) {
+        updated += count;
+    }
+
+    public void addError(int line, String message) {
+        failed++;
+        if (errors.size() < MAX_ERRORS) {
+            errors.add(new RowError(line, message));
+        } else {
+            errorsTruncated = true;
+        }
+    }
+
+    public int getTotal() { return total; }
+    public int getInserted() { return inserted; }
+    public int getUpdated() { return updated; }
+    public int getFailed() { return failed; }
+    public boolean isErrorsTruncated() { return errorsTruncated; }
+    public List<RowError> getErrors() { return errors; }
+}
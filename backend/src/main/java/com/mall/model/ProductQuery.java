@@ -0,0 +1,73 @@
+package com.mall.model;
+
+import java.math.BigDecimal;
+
+/**
+ * 商品分页查询条件 (GET /product 的键集分页参数)
+ * 游标由上一页最后一条记录的排序值和 ID 组成
+ */
+public class ProductQuery {
+
+    /**
+     * 支持的排序字段及对应的数据库列
+     */
+    public enum SortField {
+        ID("id"),
+        PRICE("price"),
+        CREATED_AT("created_at"),
+        STOCK("stock_quantity");
+
+        private final String column;
+
+        SortField(String column) {
+            this.column = column;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public static SortField fromParam(String param) {
+            if (param == null || param.isEmpty()) {
+                return ID;
+            }
+            switch (param.toLowerCase()) {
+                case "id": return ID;
+                case "price": return PRICE;
+                case "created_at":
+                case "createdat": return CREATED_AT;
+                case "stock":
+                case "stock_quantity": return STOCK;
+                default: throw new IllegalArgumentException("不支持的排序字段: " + param);
+            }
+        }
+    }
+
+    private SortField sortField = SortField.ID;
+    private boolean descending = true;
+    private int limit = 20;
+    private BigDecimal minPrice;
+    private BigDecimal maxPrice;
+    private boolean inStockOnly;
+
+    // 游标：上一页最后一条记录的排序值 (String 形式) 和 ID，首页为 null
+    private String cursorValue;
+    private Integer cursorId;
+
+    public SortField getSortField() { return sortField; }
+    public void setSortField(SortField sortField) { this.sortField = sortField; }
+    public boolean isDescending() { return descending; }
+    public void setDescending(boolean descending) { this.descending = descending; }
+    public int getLimit() { return limit; }
+    public void setLimit(int limit) { this.limit = limit; }
+    public BigDecimal getMinPrice() { return minPrice; }
+    public void setMinPrice(BigDecimal minPrice) { this.minPrice = minPrice; }
+    public BigDecimal getMaxPrice() { return maxPrice; }
+    public void setMaxPrice(BigDecimal maxPrice) { this.maxPrice = maxPrice; }
+    public boolean isInStockOnly() { return inStockOnly; }
+    public void setInStockOnly(boolean inStockOnly) { this.inStockOnly = inStockOnly; }
+    public String getCursorValue() { return cursorValue; }
+    public void setCursorValue(String cursorValue) { this.cursorValue = cursorValue; }
+    public Integer getCursorId() { return cursorId; }
+    public void setCursorId(Integer cursorId) { this.cursorId = cursorId; }
+}
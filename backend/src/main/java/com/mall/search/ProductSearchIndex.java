@@ -0,0 +1,260 @@
+package com.mall.search;
+
+import com.mall.model.Product;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商品全文检索 (进程内倒排索引)
+ * 对 name 和 description 分词建索引：英文/数字按单词切分并转小写，中日韩文字按二元组 (bigram) 切分。
+ * 使用 BM25 打分，名称命中的权重高于描述。启动时全量构建，ProductDAO 写操作时增量更新。
+ */
+public class ProductSearchIndex {
+
+    private static final ProductSearchIndex INSTANCE = new ProductSearchIndex();
+
+    // 名称中词频的权重倍数
+    private static final int NAME_WEIGHT = 3;
+    // BM25 参数
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // 单个商品在索引中的信息
+    private static class Document {
+        final Map<String, Integer> termFreq; // 词 -> 加权词频
+        final int length;                    // 加权后的文档长度
+
+        Document(Map<String, Integer> termFreq, int length) {
+            this.termFreq = termFreq;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 检索结果：命中总数和当前页的商品 ID (按相关度排序)
+     */
+    public static class SearchResult {
+        private final int total;
+        private final List<Integer> productIds;
+
+        SearchResult(int total, List<Integer> productIds) {
+            this.total = total;
+            this.productIds = productIds;
+        }
+
+        public int getTotal() { return total; }
+        public List<Integer> getProductIds() { return productIds; }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // 倒排表：词 -> (商品ID -> 加权词频)
+    private final Map<String, Map<Integer, Integer>> postings = new HashMap<>();
+    private final Map<Integer, Document> documents = new HashMap<>();
+    private long totalLength;
+    private volatile boolean built;
+
+    private ProductSearchIndex() {
+    }
+
+    public static ProductSearchIndex getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * 用完整商品列表重建索引
+     */
+    public void rebuild(Collection<Product> products) {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            documents.clear();
+            totalLength = 0;
+            for (Product product : products) {
+                addDocument(product.getId(), product.getName(), product.getDescription());
+            }
+            built = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("商品检索索引构建完成，商品数: " + products.size());
+    }
+
+    /**
+     * 新增或更新单个商品的索引
+     */
+    public void index(int productId, String name, String description) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(productId);
+            addDocument(productId, name, description);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 从索引中移除商品 (商品被删除)
+     */
+    public void remove(int productId) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(productId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 检索商品
+     * @param query 检索词
+     * @param page 页码，从 1 开始
+     * @param size 每页条数
+     */
+    public SearchResult search(String query, int page, int size) {
+        List<String> queryTerms = new ArrayList<>(tokenize(query, 1, true).keySet());
+        if (queryTerms.isEmpty()) {
+            return new SearchResult(0, new ArrayList<>());
+        }
+
+        Map<Integer, Double> scores = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            int docCount = documents.size();
+            double avgLength = docCount == 0 ? 1 : (double) totalLength / docCount;
+            for (String term : queryTerms) {
+                Map<Integer, Integer> posting = postings.get(term);
+                if (posting == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (docCount - posting.size() + 0.5) / (posting.size() + 0.5));
+                for (Map.Entry<Integer, Integer> entry : posting.entrySet()) {
+                    int tf = entry.getValue();
+                    int length = documents.get(entry.getKey()).length;
+                    double norm = tf + K1 * (1 - B + B * length / avgLength);
+                    scores.merge(entry.getKey(), idf * tf * (K1 + 1) / norm, Double::sum);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // 按得分降序，得分相同按 ID 降序 (新商品在前)
+        List<Map.Entry<Integer, Double>> ranked = new ArrayList<>(scores.entrySet());
+        ranked.sort((a, b) -> {
+            int byScore = Double.compare(b.getValue(), a.getValue());
+            return byScore != 0 ? byScore : Integer.compare(b.getKey(), a.getKey());
+        });
+
+        List<Integer> pageIds = new ArrayList<>();
+        int from = Math.max(0, (page - 1) * size);
+        for (int i = from; i < ranked.size() && i < from + size; i++) {
+            pageIds.add(ranked.get(i).getKey());
+        }
+        return new SearchResult(ranked.size(), pageIds);
+    }
+
+    // 调用方需持有写锁
+    private void addDocument(int productId, String name, String description) {
+        Map<String, Integer> termFreq = tokenize(name, NAME_WEIGHT, false);
+        tokenize(description, 1, false).forEach((term, freq) -> termFreq.merge(term, freq, Integer::sum));
+
+        int length = 0;
+        for (Map.Entry<String, Integer> entry : termFreq.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), key -> new HashMap<>()).put(productId, entry.getValue());
+            length += entry.getValue();
+        }
+        documents.put(productId, new Document(termFreq, length));
+        totalLength += length;
+    }
+
+    // 调用方需持有写锁
+    private void removeDocument(int productId) {
+        Document document = documents.remove(productId);
+        if (document == null) {
+            return;
+        }
+        for (String term : document.termFreq.keySet()) {
+            Map<Integer, Integer> posting = postings.get(term);
+            if (posting != null) {
+                posting.remove(productId);
+                if (posting.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+        totalLength -= document.length;
+    }
+
+    /**
+     * 分词并统计词频 (乘以权重)
+     * 连续的字母/数字组成一个词；连续的中日韩文字切成相邻二元组。
+     * 建索引时额外记录单字，使单字检索也能命中；检索时多字只用二元组，单字才用单字。
+     */
+    static Map<String, Integer> tokenize(String text, int weight, boolean forQuery) {
+        Map<String, Integer> terms = new LinkedHashMap<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        String lower = text.toLowerCase();
+        StringBuilder word = new StringBuilder();
+        StringBuilder cjkRun = new StringBuilder();
+
+        int i = 0;
+        while (i < lower.length()) {
+            int codePoint = lower.codePointAt(i);
+            if (isCjk(codePoint)) {
+                flushWord(word, terms, weight);
+                cjkRun.appendCodePoint(codePoint);
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                flushCjk(cjkRun, terms, weight, forQuery);
+                word.appendCodePoint(codePoint);
+            } else {
+                flushWord(word, terms, weight);
+                flushCjk(cjkRun, terms, weight, forQuery);
+            }
+            i += Character.charCount(codePoint);
+        }
+        flushWord(word, terms, weight);
+        flushCjk(cjkRun, terms, weight, forQuery);
+        return terms;
+    }
+
+    private static void flushWord(StringBuilder word, Map<String, Integer> terms, int weight) {
+        if (word.length() > 0) {
+            terms.merge(word.toString(), weight, Integer::sum);
+            word.setLength(0);
+        }
+    }
+
+    private static void flushCjk(StringBuilder run, Map<String, Integer> terms, int weight, boolean forQuery) {
+        int[] codePoints = run.codePoints().toArray();
+        if (!forQuery || codePoints.length == 1) {
+            for (int i = 0; i < codePoints.length; i++) {
+                terms.merge(new String(codePoints, i, 1), weight, Integer::sum);
+            }
+        }
+        for (int i = 0; i + 1 < codePoints.length; i++) {
+            terms.merge(new String(codePoints, i, 2), weight, Integer::sum);
+        }
+        run.setLength(0);
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -2,11 +2,10 @@ package com.mall.servlet;
 
 import com.google.gson.Gson;
 import com.mall.dao.CartDAO;
-import com.mall.dao.CustomerDAO;
 import com.mall.dao.OrderDAO;
 import com.mall.model.OrderMaster;
 import com.mall.model.OrderItem;
-import com.mall.util.EmailUtil;
+import com.mall.model.OrderQuery;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -15,8 +14,15 @@ import jakarta.servlet.http.HttpServletResponse;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,9 +32,15 @@ import java.util.Map;
 public class OrderServlet extends HttpServlet {
     private final OrderDAO orderDAO = new OrderDAO();
     private final CartDAO cartDAO = new CartDAO();
-    private final CustomerDAO customerDAO = new CustomerDAO();
     private final Gson gson = new Gson();
 
+    // 管理员订单检索分页大小
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 200;
+
+    // Idempotency-Key 最大长度 (与 order_idempotency.idempotency_key 列一致)
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 64;
+
     // 辅助方法：发送 JSON 响应
     private void sendJsonResponse(HttpServletResponse response, int status, Object data) throws IOException {
         response.setContentType("application/json");
@@ -55,6 +67,19 @@ public class OrderServlet extends HttpServlet {
             }
             int customerId = Integer.parseInt(userIdStr);
 
+            // 客户端超时重试时携带同一个 Idempotency-Key：已经下单成功的直接返回原订单，不再执行事务
+            String idempotencyKey = request.getHeader("Idempotency-Key");
+            if (idempotencyKey != null) {
+                idempotencyKey = idempotencyKey.trim();
+                if (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+                    sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST, new HashMap<String, String>() {{ put("message", "Idempotency-Key 不能为空且长度不能超过 " + MAX_IDEMPOTENCY_KEY_LENGTH + "。"); }});
+                    return;
+                }
+                if (sendIdempotentReplay(response, customerId, idempotencyKey)) {
+                    return;
+                }
+            }
+
             OrderMaster order = null;
 
             // 内部 try：处理 JSON 解析和 IO 相关的异常
@@ -141,21 +166,29 @@ public class OrderServlet extends HttpServlet {
 
                 order.setTotalAmount(totalAmount);
                 System.out.println("[TRACE 5.4] Total amount set: " + totalAmount); // 追踪点
+                order.setIdempotencyKey(idempotencyKey);
 
                 // 4. 执行事务创建订单
                 System.out.println("[TRACE 6] 调用 OrderDAO.createOrder..."); // 追踪点
                 int orderId = orderDAO.createOrder(order, orderItems, cartItemIds);
                 System.out.println("[TRACE 7] OrderDAO 调用结束，返回 orderId: " + orderId);
 
+                // 同一个键的并发请求：后到的事务因幂等键冲突回滚，返回先提交的那个订单
+                if (orderId <= 0 && idempotencyKey != null && sendIdempotentReplay(response, customerId, idempotencyKey)) {
+                    return;
+                }
+
                 if (orderId > 0) {
                     result.put("success", true);
                     result.put("orderId", orderId);
                     result.put("message", "订单创建成功。");
                     sendJsonResponse(response, HttpServletResponse.SC_CREATED, result); // 201 Created
+                    // 订单确认邮件已随订单写入发件箱 (email_outbox)，由后台 EmailOutboxDispatcher 发送
 
-                    // 5. 发送订单确认邮件（使用单独线程，避免影响响应时间）
-                    sendOrderConfirmationEmail(customerId, orderId, totalAmount, shippingAddress, orderItems);
-
+                } else if (orderId == OrderDAO.INSUFFICIENT_STOCK) {
+                    result.put("success", false);
+                    result.put("message", "订单创建失败：商品库存不足。");
+                    sendJsonResponse(response, HttpServletResponse.SC_CONFLICT, result);
                 } else {
                     result.put("success", false);
                     result.put("message", "订单创建失败：库存不足或数据库操作错误。");
@@ -175,6 +208,31 @@ public class OrderServlet extends HttpServlet {
         }
     }
 
+    /**
+     * 该幂等键已下过单时按首次成功的响应格式返回原订单 (201)，并带上 Idempotent-Replayed 响应头
+     * @return 是否已返回响应；查询失败时返回 false，继续下单 (表主键保证不会重复创建)
+     */
+    private boolean sendIdempotentReplay(HttpServletResponse response, int customerId, String idempotencyKey) throws IOException {
+        Integer existingOrderId;
+        try {
+            existingOrderId = orderDAO.findOrderIdByIdempotencyKey(customerId, idempotencyKey);
+        } catch (SQLException e) {
+            System.err.println("查询下单幂等键失败: " + e.getMessage());
+            return false;
+        }
+        if (existingOrderId == null) {
+            return false;
+        }
+        System.out.println("幂等键已下单，直接返回原订单: " + existingOrderId);
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("orderId", existingOrderId);
+        result.put("message", "订单创建成功。");
+        response.setHeader("Idempotent-Replayed", "true");
+        sendJsonResponse(response, HttpServletResponse.SC_CREATED, result);
+        return true;
+    }
+
     // --- 订单列表/详情 (GET /api/order 或 /api/order/{id}) ---
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
@@ -192,6 +250,18 @@ public class OrderServlet extends HttpServlet {
         String pathInfo = request.getPathInfo();
         Map<String, Object> result = new HashMap<>();
 
+        // GET /api/order/export?format=ndjson|csv - 管理员流式导出订单
+        // 放在下面的统一异常处理之外：响应已开始输出后出错只能中断连接，不能再追加 JSON 错误信息
+        if ("/export".equals(pathInfo)) {
+            if (isAdmin == null || !isAdmin) {
+                sendJsonResponse(response, HttpServletResponse.SC_FORBIDDEN,
+                        new HashMap<String, String>() {{ put("message", "无权访问此资源。"); }});
+                return;
+            }
+            exportOrders(request, response);
+            return;
+        }
+
         try {
             if (pathInfo == null || pathInfo.equals("/")) {
                 // 情况 1: GET /api/order/ - 获取订单列表
@@ -201,37 +271,55 @@ public class OrderServlet extends HttpServlet {
                 sendJsonResponse(response, HttpServletResponse.SC_OK, result);
             } else if (pathInfo.equals("/all")) {
                 // 情况 2: GET /api/order/all - 获取所有订单（仅管理员）
+                // 已废弃：一次返回全部订单和订单项，订单多时很慢；前端已改用 /search 分页，保留仅为兼容旧客户端
                 if (isAdmin == null || !isAdmin) {
                     sendJsonResponse(response, HttpServletResponse.SC_FORBIDDEN,
                             new HashMap<String, String>() {{ put("message", "无权访问此资源。"); }});
                     return;
                 }
+                System.out.println("[WARN] 调用了已废弃的 GET /api/order/all，请改用 GET /api/order/search 分页检索。");
+                response.setHeader("Deprecation", "true");
+                response.setHeader("Link", "</api/order/search>; rel=\"successor-version\"");
                 List<Map<String, Object>> allOrders = orderDAO.getAllOrders();
                 result.put("success", true);
                 result.put("orders", allOrders);
                 sendJsonResponse(response, HttpServletResponse.SC_OK, result);
+            } else if (pathInfo.equals("/search")) {
+                // 情况 3: GET /api/order/search - 管理员订单检索 (筛选 + 键集分页)
+                if (isAdmin == null || !isAdmin) {
+                    sendJsonResponse(response, HttpServletResponse.SC_FORBIDDEN,
+                            new HashMap<String, String>() {{ put("message", "无权访问此资源。"); }});
+                    return;
+                }
+                sendOrderSearchResult(request, response);
             } else {
-                // 情况 3: GET /api/order/{id} - 获取单个订单详情
+                // 情况 4: GET /api/order/{id} - 获取单个订单详情
                 String[] pathParts = pathInfo.split("/");
                 if (pathParts.length == 2 && !pathParts[1].isEmpty()) {
                     int orderId = Integer.parseInt(pathParts[1]);
 
-                    Map<String, Object> orderDetails = orderDAO.getOrderById(orderId);
-
-                    if (orderDetails == null) {
+                    // 先校验归属 (只查 customer_id，通常命中缓存)，无权访问时不加载订单详情
+                    Integer orderCustomerId = orderDAO.getOrderOwnerId(orderId);
+                    if (orderCustomerId == null) {
                         sendJsonResponse(response, HttpServletResponse.SC_NOT_FOUND,
                                 new HashMap<String, String>() {{ put("message", "订单未找到。"); }});
                         return;
                     }
 
                     // 修复越权问题：显式转换类型确保比较准确性
-                    int orderCustomerId = (Integer) orderDetails.get("customerId");
                     if (orderCustomerId != customerId && (isAdmin == null || !isAdmin)) {
                         sendJsonResponse(response, HttpServletResponse.SC_FORBIDDEN,
                                 new HashMap<String, String>() {{ put("message", "无权访问此订单。"); }});
                         return;
                     }
 
+                    Map<String, Object> orderDetails = orderDAO.getOrderById(orderId);
+                    if (orderDetails == null) {
+                        sendJsonResponse(response, HttpServletResponse.SC_NOT_FOUND,
+                                new HashMap<String, String>() {{ put("message", "订单未找到。"); }});
+                        return;
+                    }
+
                     result.put("success", true);
                     result.put("order", orderDetails);
                     sendJsonResponse(response, HttpServletResponse.SC_OK, result);
@@ -251,6 +339,179 @@ public class OrderServlet extends HttpServlet {
         }
     }
 
+    /**
+     * 管理员订单检索
+     * 参数：status (可逗号分隔多个)、startDate/endDate (yyyy-MM-dd，含首尾两天)、customerId、
+     * minAmount/maxAmount、limit、cursor (上一页返回的 nextCursor)、includeItems (默认 false，只返回订单摘要)
+     */
+    private void sendOrderSearchResult(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Map<String, Object> result = new HashMap<>();
+        OrderQuery query;
+        try {
+            query = parseOrderQuery(request);
+            String limitStr = request.getParameter("limit");
+            int limit = limitStr == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limitStr);
+            query.setLimit(Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+            query.setIncludeItems(Boolean.parseBoolean(request.getParameter("includeItems")));
+
+            String cursor = request.getParameter("cursor");
+            if (cursor != null && !cursor.isEmpty()) {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException("无效的游标");
+                }
+                query.setCursorDate(new Timestamp(Long.parseLong(parts[0])));
+                query.setCursorId(Long.parseLong(parts[1]));
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            result.put("success", false);
+            result.put("message", "检索参数错误：" + e.getMessage());
+            sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST, result);
+            return;
+        }
+
+        List<Map<String, Object>> orders = orderDAO.searchOrders(query);
+        if (orders == null) {
+            result.put("success", false);
+            result.put("message", "服务器内部错误：订单检索失败。");
+            sendJsonResponse(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, result);
+            return;
+        }
+        boolean hasMore = orders.size() > query.getLimit();
+        if (hasMore) {
+            orders = orders.subList(0, query.getLimit());
+            Map<String, Object> last = orders.get(orders.size() - 1);
+            String raw = ((Timestamp) last.get("orderDate")).getTime() + ":" + last.get("id");
+            result.put("nextCursor", Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        result.put("success", true);
+        result.put("orders", orders);
+        result.put("hasMore", hasMore);
+        sendJsonResponse(response, HttpServletResponse.SC_OK, result);
+    }
+
+    /**
+     * 流式导出订单，支持与检索相同的筛选参数，format 为 ndjson (默认，每行一个订单 JSON) 或 csv
+     * includeItems=true 时 NDJSON 每个订单带 items，CSV 每个订单项一行 (订单字段重复)
+     * 不设置 Content-Length，由容器使用分块传输；写出过程中出错只能中断连接
+     */
+    private void exportOrders(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        OrderQuery query;
+        try {
+            query = parseOrderQuery(request);
+            query.setIncludeItems(Boolean.parseBoolean(request.getParameter("includeItems")));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST,
+                    new HashMap<String, String>() {{ put("message", "导出参数错误：" + e.getMessage()); }});
+            return;
+        }
+        String format = request.getParameter("format") == null ? "ndjson" : request.getParameter("format").toLowerCase();
+        boolean csv = format.equals("csv");
+        if (!csv && !format.equals("ndjson")) {
+            sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST,
+                    new HashMap<String, String>() {{ put("message", "导出格式只支持 ndjson 或 csv。"); }});
+            return;
+        }
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(csv ? "text/csv" : "application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename=\"orders." + format + "\"");
+        PrintWriter writer = response.getWriter();
+        boolean includeItems = query.isIncludeItems();
+        if (csv) {
+            writer.write(includeItems
+                    ? "order_id,customer_id,customer_name,order_date,order_status,total_amount,shipping_address,item_id,product_id,product_name,price_at_purchase,quantity\n"
+                    : "order_id,customer_id,customer_name,order_date,order_status,total_amount,shipping_address\n");
+        }
+
+        try {
+            int count = orderDAO.exportOrders(query, (order, items) -> {
+                if (!csv) {
+                    writer.write(gson.toJson(order));
+                    writer.write('\n');
+                    return;
+                }
+                String orderColumns = order.get("id") + "," + order.get("customerId") + "," + csvValue(order.get("customerName")) + ","
+                        + csvValue(order.get("orderDate")) + "," + csvValue(order.get("orderStatus")) + ","
+                        + order.get("totalAmount") + "," + csvValue(order.get("shippingAddress"));
+                if (items == null) {
+                    writer.write(orderColumns + "\n");
+                } else if (items.isEmpty()) {
+                    writer.write(orderColumns + ",,,,,\n");
+                } else {
+                    for (Map<String, Object> item : items) {
+                        writer.write(orderColumns + "," + item.get("id") + "," + item.get("productId") + ","
+                                + csvValue(item.get("productName")) + "," + item.get("priceAtPurchase") + "," + item.get("quantity") + "\n");
+                    }
+                }
+            });
+            writer.flush();
+            System.out.println("[INFO] 订单导出完成，共 " + count + " 个订单，格式: " + format);
+        } catch (SQLException e) {
+            System.err.println("[ERROR] 订单导出失败：");
+            e.printStackTrace();
+            if (!response.isCommitted()) {
+                // 还没有输出任何数据 (如查询本身失败)，改为返回 JSON 错误
+                response.reset();
+                sendJsonResponse(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                        new HashMap<String, String>() {{ put("message", "服务器内部错误：订单导出失败。"); }});
+                return;
+            }
+            // 响应已开始输出，抛出异常中断连接，让客户端感知导出不完整
+            throw new IOException("订单导出失败", e);
+        }
+    }
+
+    // CSV 字段转义：包含逗号、引号或换行时用双引号包裹
+    private String csvValue(Object value) {
+        if (value == null) {
+            return "";
+        }
+        String text = value.toString();
+        if (text.contains(",") || text.contains("\"") || text.contains("\n") || text.contains("\r")) {
+            return "\"" + text.replace("\"", "\"\"") + "\"";
+        }
+        return text;
+    }
+
+    // 解析订单筛选参数 (检索和导出共用)，参数格式错误时抛出 IllegalArgumentException / DateTimeParseException
+    private OrderQuery parseOrderQuery(HttpServletRequest request) {
+        OrderQuery query = new OrderQuery();
+        String status = request.getParameter("status");
+        if (status != null) {
+            List<String> statuses = new ArrayList<>();
+            for (String s : status.split(",")) {
+                if (!s.trim().isEmpty()) {
+                    statuses.add(s.trim());
+                }
+            }
+            query.setStatuses(statuses);
+        }
+        String startDate = request.getParameter("startDate");
+        if (startDate != null && !startDate.isEmpty()) {
+            query.setFrom(Timestamp.valueOf(LocalDate.parse(startDate).atStartOfDay()));
+        }
+        String endDate = request.getParameter("endDate");
+        if (endDate != null && !endDate.isEmpty()) {
+            query.setTo(Timestamp.valueOf(LocalDate.parse(endDate).plusDays(1).atStartOfDay()));
+        }
+        String customerId = request.getParameter("customerId");
+        if (customerId != null && !customerId.isEmpty()) {
+            query.setCustomerId(Integer.parseInt(customerId));
+        }
+        String minAmount = request.getParameter("minAmount");
+        if (minAmount != null && !minAmount.isEmpty()) {
+            query.setMinAmount(new BigDecimal(minAmount));
+        }
+        String maxAmount = request.getParameter("maxAmount");
+        if (maxAmount != null && !maxAmount.isEmpty()) {
+            query.setMaxAmount(new BigDecimal(maxAmount));
+        }
+        return query;
+    }
+
     // --- 删除订单 (DELETE /api/order/{id}) ---
     @Override
     protected void doDelete(HttpServletRequest request, HttpServletResponse response)
@@ -275,15 +536,14 @@ public class OrderServlet extends HttpServlet {
             if (pathParts.length == 2 && !pathParts[1].isEmpty()) {
                 int orderId = Integer.parseInt(pathParts[1]);
 
-                // 验证订单权限
-                Map<String, Object> orderDetails = orderDAO.getOrderById(orderId);
-                if (orderDetails == null) {
+                // 验证订单权限 (只查订单归属，不加载订单详情)
+                Integer orderCustomerId = orderDAO.getOrderOwnerId(orderId);
+                if (orderCustomerId == null) {
                     sendJsonResponse(response, HttpServletResponse.SC_NOT_FOUND,
                             new HashMap<String, String>() {{ put("message", "订单未找到。"); }});
                     return;
                 }
 
-                int orderCustomerId = (Integer) orderDetails.get("customerId");
                 if (orderCustomerId != customerId && (isAdmin == null || !isAdmin)) {
                     sendJsonResponse(response, HttpServletResponse.SC_FORBIDDEN,
                             new HashMap<String, String>() {{ put("message", "无权删除此订单。"); }});
@@ -390,59 +650,4 @@ public class OrderServlet extends HttpServlet {
                     new HashMap<String, String>() {{ put("message", "服务器内部错误：" + e.getMessage()); }});
         }
     }
-
-    // 发送订单确认邮件
-    private void sendOrderConfirmationEmail(int customerId, int orderId, BigDecimal totalAmount, String shippingAddress, List<OrderItem> orderItems) {
-        new Thread(() -> {
-            try {
-                // 获取用户邮箱
-                String userEmail = customerDAO.getEmailById(customerId);
-                if (userEmail == null || userEmail.isEmpty()) {
-                    System.err.println("[ERROR] 无法获取用户邮箱，跳过邮件发送。");
-                    return;
-                }
-
-                // 构建邮件内容
-                StringBuilder emailContent = new StringBuilder();
-                emailContent.append("亲爱的顾客：\n\n");
-                emailContent.append("感谢您的订单！以下是您的订单详情：\n\n");
-                emailContent.append("订单号：").append(orderId).append("\n");
-                emailContent.append("总金额：￥").append(totalAmount).append("\n");
-                emailContent.append("收货地址：").append(shippingAddress).append("\n\n");
-                emailContent.append("订单商品：\n");
-                emailContent.append("----------------------------------------\n");
-                emailContent.append("商品名称\t\t数量\t单价\t小计\n");
-                emailContent.append("----------------------------------------\n");
-
-                for (OrderItem item : orderItems) {
-                    BigDecimal itemTotal = item.getPriceAtOrder().multiply(new BigDecimal(item.getQuantity()));
-                    emailContent.append(item.getProductName())
-                            .append("\t\t")
-                            .append(item.getQuantity())
-                            .append("\t")
-                            .append("￥")
-                            .append(item.getPriceAtOrder())
-                            .append("\t")
-                            .append("￥")
-                            .append(itemTotal)
-                            .append("\n");
-                }
-
-                emailContent.append("----------------------------------------\n");
-                emailContent.append("总计：￥").append(totalAmount).append("\n\n");
-                emailContent.append("我们将尽快为您处理订单。如有任何问题，请随时联系我们。\n\n");
-                emailContent.append("此致\n");
-                emailContent.append("商城团队\n");
-
-                // 发送邮件
-                String subject = "订单确认 - 订单号：" + orderId;
-                EmailUtil.sendEmail(userEmail, subject, emailContent.toString());
-                System.out.println("[INFO] 订单确认邮件已发送至：" + userEmail);
-
-            } catch (Exception e) {
-                System.err.println("[ERROR] 发送订单确认邮件失败：");
-                e.printStackTrace();
-            }
-        }).start();
-    }
-}
\ No newline at end of file
+}
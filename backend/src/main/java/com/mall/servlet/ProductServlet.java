@@ -1,8 +1,16 @@
 package com.mall.servlet;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.mall.cache.CatalogSnapshot;
+import com.mall.cache.ProductCatalogCache;
 import com.mall.dao.ProductDAO;
 import com.mall.model.Product;
+import com.mall.model.ProductImportReport;
+import com.mall.model.ProductQuery;
+import com.mall.search.ProductSearchIndex;
+import com.mall.util.AppConfig;
+import com.mall.util.CsvReader;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -13,7 +21,12 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -23,6 +36,25 @@ public class ProductServlet extends HttpServlet {
 
     private final ProductDAO productDAO = new ProductDAO();
     private final Gson gson = new Gson();
+    private final CatalogSnapshot snapshot = CatalogSnapshot.getInstance();
+
+    // 进程启动时间，拼进 ETag，避免重启后版本号从 0 开始导致误判未修改
+    private static final String ETAG_PREFIX = "\"p" + Long.toHexString(System.currentTimeMillis()) + "-";
+
+    // 分页查询参数
+    private static final String[] PAGE_PARAMS = {"limit", "cursor", "sort", "order", "minPrice", "maxPrice", "inStock"};
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 100;
+    // 批量查询单次最多的商品 ID 数
+    private static final int MAX_BATCH_IDS = 500;
+
+    // 批量导入每个事务提交的行数
+    private static final int IMPORT_CHUNK_SIZE = AppConfig.getInt("PRODUCT_IMPORT_CHUNK_SIZE", 500);
+
+    // POST /api/product/batch 请求体
+    private static class BatchRequest {
+        List<Integer> ids;
+    }
 
     // 辅助方法：发送 JSON 响应
     private void sendJsonResponse(HttpServletResponse response, int status, Object data) throws IOException {
@@ -39,6 +71,21 @@ public class ProductServlet extends HttpServlet {
         Map<String, Object> result = new HashMap<>();
 
         try {
+            // POST /api/product/batch - 批量获取商品 (ID 较多时代替 GET ?ids=，无需登录)
+            if ("/batch".equals(request.getPathInfo())) {
+                BatchRequest batch;
+                try {
+                    batch = gson.fromJson(request.getReader(), BatchRequest.class);
+                } catch (JsonParseException e) {
+                    result.put("success", false);
+                    result.put("message", "请求体格式错误，应为 {\"ids\": [1, 2, 3]}。");
+                    sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST, result);
+                    return;
+                }
+                sendProductBatch(response, batch == null ? null : batch.ids);
+                return;
+            }
+
             // 新增：管理员权限验证
             Boolean isAdmin = (Boolean) request.getAttribute("isAdmin");
             if (isAdmin == null || !isAdmin) {
@@ -48,6 +95,24 @@ public class ProductServlet extends HttpServlet {
                 return;
             }
 
+            // POST /api/product/cache/refresh - 强制刷新商品缓存 (仅管理员)
+            if ("/cache/refresh".equals(request.getPathInfo())) {
+                ProductCatalogCache cache = ProductCatalogCache.getInstance();
+                cache.invalidateAll();
+                productDAO.getAllProducts(); // 预热商品列表
+                result.put("success", true);
+                result.put("message", "商品缓存已刷新。");
+                result.put("data", cache.getStats());
+                sendJsonResponse(response, HttpServletResponse.SC_OK, result);
+                return;
+            }
+
+            // POST /api/product/import?format=csv|ndjson - 批量导入商品 (仅管理员)
+            if ("/import".equals(request.getPathInfo())) {
+                importProducts(request, response);
+                return;
+            }
+
             // 读取请求体并反序列化为Product对象
             BufferedReader reader = request.getReader();
             Product product = gson.fromJson(reader, Product.class);
@@ -85,6 +150,163 @@ public class ProductServlet extends HttpServlet {
         }
     }
 
+    /**
+     * 流式读取 CSV (首行为表头) 或 NDJSON (每行一个商品 JSON)，按 IMPORT_CHUNK_SIZE 分段批量写入
+     * 单行格式错误只记录到报告中，不影响其他行；某个分段数据库写入失败时该分段整体回滚并逐行记录
+     */
+    private void importProducts(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Map<String, Object> result = new HashMap<>();
+        String format = request.getParameter("format");
+        String contentType = request.getContentType();
+        if (format == null && contentType != null) {
+            String type = contentType.toLowerCase();
+            if (type.contains("csv")) {
+                format = "csv";
+            } else if (type.contains("ndjson") || type.contains("jsonl")) {
+                format = "ndjson";
+            }
+        }
+        boolean csv = "csv".equalsIgnoreCase(format);
+        if (!csv && !"ndjson".equalsIgnoreCase(format)) {
+            result.put("success", false);
+            result.put("message", "请通过 format=csv|ndjson 参数或 Content-Type 指定导入格式。");
+            sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST, result);
+            return;
+        }
+        if (request.getCharacterEncoding() == null) {
+            request.setCharacterEncoding("UTF-8");
+        }
+
+        ProductImportReport report = new ProductImportReport();
+        List<Product> chunk = new ArrayList<>();
+        List<Integer> chunkLines = new ArrayList<>();
+        int line = 0;
+        try {
+            if (csv) {
+                CsvReader reader = new CsvReader(request.getReader());
+                List<String> header = reader.readRecord();
+                Map<String, Integer> columns = new HashMap<>();
+                if (header != null) {
+                    for (int i = 0; i < header.size(); i++) {
+                        columns.put(header.get(i).trim().toLowerCase().replace("_", ""), i);
+                    }
+                }
+                if (!columns.containsKey("name") || !columns.containsKey("price")) {
+                    result.put("success", false);
+                    result.put("message", "CSV 表头必须包含 name 和 price 列。");
+                    sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST, result);
+                    return;
+                }
+
+                List<String> record;
+                while ((record = reader.readRecord()) != null) {
+                    line = reader.getRecordLineNumber();
+                    if (record.size() == 1 && record.get(0).trim().isEmpty()) {
+                        continue; // 空行
+                    }
+                    report.addRow();
+                    try {
+                        Product product = new Product();
+                        product.setName(csvField(record, columns, "name"));
+                        product.setDescription(csvField(record, columns, "description"));
+                        String price = csvField(record, columns, "price");
+                        product.setPrice(price == null ? null : new BigDecimal(price));
+                        String stock = csvField(record, columns, "stockquantity");
+                        if (stock == null) {
+                            stock = csvField(record, columns, "stock");
+                        }
+                        product.setStockQuantity(stock == null ? 0 : Integer.parseInt(stock));
+                        product.setImageUrl(csvField(record, columns, "imageurl"));
+                        addImportRow(product, line, chunk, chunkLines, report);
+                    } catch (IllegalArgumentException e) {
+                        report.addError(line, "数值格式错误: " + e.getMessage());
+                    }
+                }
+            } else {
+                BufferedReader reader = request.getReader();
+                String text;
+                while ((text = reader.readLine()) != null) {
+                    line++;
+                    if (text.trim().isEmpty()) {
+                        continue;
+                    }
+                    report.addRow();
+                    try {
+                        addImportRow(gson.fromJson(text, Product.class), line, chunk, chunkLines, report);
+                    } catch (JsonParseException | NumberFormatException e) {
+                        report.addError(line, "JSON 格式错误: " + e.getMessage());
+                    }
+                }
+            }
+            flushImportChunk(chunk, chunkLines, report);
+        } catch (IOException e) {
+            // 请求体读取中断 (如 CSV 引号未闭合)，已提交的分段保留
+            report.addError(line, "读取请求体失败: " + e.getMessage());
+        } finally {
+            if (report.getInserted() + report.getUpdated() > 0) {
+                productDAO.finishImport();
+            }
+        }
+
+        result.put("success", true);
+        result.put("message", "商品导入完成。");
+        result.put("data", report);
+        sendJsonResponse(response, HttpServletResponse.SC_OK, result);
+    }
+
+    // 取 CSV 字段，列不存在或为空白时返回 null
+    private String csvField(List<String> record, Map<String, Integer> columns, String column) {
+        Integer index = columns.get(column);
+        if (index == null || index >= record.size()) {
+            return null;
+        }
+        String value = record.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    // 校验一行导入数据，合法则加入当前分段，分段满时写库
+    private void addImportRow(Product product, int line, List<Product> chunk, List<Integer> chunkLines,
+                              ProductImportReport report) {
+        if (product == null || product.getName() == null || product.getName().trim().isEmpty()) {
+            report.addError(line, "商品名称不能为空。");
+            return;
+        }
+        if (product.getName().length() > 255) {
+            report.addError(line, "商品名称不能超过 255 个字符。");
+            return;
+        }
+        if (product.getPrice() == null || product.getPrice().compareTo(BigDecimal.ZERO) < 0) {
+            report.addError(line, "商品价格不能为空或负数。");
+            return;
+        }
+        if (product.getStockQuantity() < 0) {
+            report.addError(line, "库存数量不能为负数。");
+            return;
+        }
+        product.setName(product.getName().trim());
+        chunk.add(product);
+        chunkLines.add(line);
+        if (chunk.size() >= IMPORT_CHUNK_SIZE) {
+            flushImportChunk(chunk, chunkLines, report);
+        }
+    }
+
+    private void flushImportChunk(List<Product> chunk, List<Integer> chunkLines, ProductImportReport report) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        try {
+            productDAO.importProductChunk(chunk, report);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            for (int line : chunkLines) {
+                report.addError(line, "数据库写入失败，所在分段已回滚: " + e.getMessage());
+            }
+        }
+        chunk.clear();
+        chunkLines.clear();
+    }
+
     // --- 2. 获取商品列表 或 单个商品 (GET /api/product 或 /api/product/{id}) ---
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
@@ -93,24 +315,76 @@ public class ProductServlet extends HttpServlet {
         String pathInfo = request.getPathInfo();
         Map<String, Object> result = new HashMap<>();
 
-        if (pathInfo == null || pathInfo.equals("/")) {
-            // GET /api/product - 获取所有商品
+        // 商品列表和单个商品支持条件请求：目录未变化时直接返回 304，不查库也不序列化
+        boolean conditional = pathInfo == null || pathInfo.equals("/") || pathInfo.matches("/\\d+");
+        if (conditional && checkNotModified(pathInfo, request, response)) {
+            return;
+        }
+
+        if ((pathInfo == null || pathInfo.equals("/")) && request.getParameter("ids") != null) {
+            // GET /api/product?ids=1,2,3 - 批量获取商品
+            List<Integer> ids = new ArrayList<>();
+            try {
+                for (String id : request.getParameter("ids").split(",")) {
+                    if (!id.trim().isEmpty()) {
+                        ids.add(Integer.parseInt(id.trim()));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                result.put("success", false);
+                result.put("message", "无效的商品ID格式。");
+                sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST, result);
+                return;
+            }
+            sendProductBatch(response, ids);
+
+        } else if ((pathInfo == null || pathInfo.equals("/")) && isPageRequest(request)) {
+            // GET /api/product?limit=&cursor=&sort=&order=&minPrice=&maxPrice=&inStock= - 键集分页
+            sendProductPage(request, response);
+
+        } else if (pathInfo == null || pathInfo.equals("/")) {
+            // GET /api/product - 获取所有商品，优先直接写出预序列化的快照
+            if (snapshot.writeList(request, response)) {
+                return;
+            }
             List<Product> products = productDAO.getAllProducts();
             result.put("success", true);
             result.put("data", products);
             sendJsonResponse(response, HttpServletResponse.SC_OK, result);
 
+        } else if (pathInfo.equals("/search")) {
+            // GET /api/product/search?q=&page=&size= - 商品全文检索
+            sendSearchResult(request, response);
+
+        } else if (pathInfo.equals("/cache")) {
+            // GET /api/product/cache - 查看商品缓存统计 (仅管理员)
+            Boolean isAdmin = (Boolean) request.getAttribute("isAdmin");
+            if (isAdmin == null || !isAdmin) {
+                result.put("success", false);
+                result.put("message", "只有管理员才能查看缓存统计。");
+                sendJsonResponse(response, HttpServletResponse.SC_FORBIDDEN, result);
+                return;
+            }
+            Map<String, Object> stats = ProductCatalogCache.getInstance().getStats();
+            stats.put("snapshot", snapshot.getStats());
+            result.put("success", true);
+            result.put("data", stats);
+            sendJsonResponse(response, HttpServletResponse.SC_OK, result);
+
         } else {
             // GET /api/product/{id} - 获取单个商品
             try {
                 // pathInfo 示例：/123。我们截取 / 后面的 ID
                 int id = Integer.parseInt(pathInfo.substring(1));
+                if (snapshot.writeDetail(id, request, response)) {
+                    return;
+                }
+                // 先取版本号再读商品，保证保存的快照不会比版本号更新
+                long version = ProductCatalogCache.getInstance().getVersion();
                 Product product = productDAO.getProductById(id);
 
                 if (product != null) {
-                    result.put("success", true);
-                    result.put("data", product);
-                    sendJsonResponse(response, HttpServletResponse.SC_OK, result);
+                    snapshot.writeAndStoreDetail(id, version, product, request, response);
                 } else {
                     result.put("success", false);
                     result.put("message", "未找到商品。");
@@ -124,6 +398,266 @@ public class ProductServlet extends HttpServlet {
         }
     }
 
+    /**
+     * 根据商品目录版本设置 ETag / Last-Modified，并处理 If-None-Match / If-Modified-Since
+     * @return 已返回 304 时为 true
+     */
+    private boolean checkNotModified(String pathInfo, HttpServletRequest request, HttpServletResponse response) {
+        ProductCatalogCache cache = ProductCatalogCache.getInstance();
+        // 版本号只随本实例的写操作递增；缓存过期时先重新加载，加载发现内容变化
+        // (其他实例、导入工具、手工改库) 会递增版本号，避免对已变化的数据返回 304
+        try {
+            if (pathInfo != null && pathInfo.matches("/\\d+")) {
+                int id = Integer.parseInt(pathInfo.substring(1));
+                if (!cache.isItemFresh(id)) {
+                    productDAO.getCatalogProduct(id);
+                }
+            } else if (!cache.isListFresh()) {
+                productDAO.getCatalog();
+            }
+        } catch (SQLException | NumberFormatException e) {
+            // 无法确认数据是否变化，不返回 304，交给后面的正常处理
+            return false;
+        }
+        // GET /product (全部商品) 可能返回只有库存落后的快照，校验值取快照的版本号，与响应内容一致
+        boolean fullList = (pathInfo == null || pathInfo.equals("/"))
+                && request.getParameter("ids") == null && !isPageRequest(request);
+        long[] validator = fullList
+                ? snapshot.getListValidator()
+                : new long[]{cache.getVersion(), cache.getLastModified()};
+        String etag = ETAG_PREFIX + validator[0] + "\"";
+        // HTTP 日期精确到秒
+        long lastModified = validator[1] / 1000 * 1000;
+
+        // 弱 ETag：同一版本的 gzip 和未压缩响应体字节不同，只是语义相同
+        response.setHeader("ETag", "W/" + etag);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setHeader("Cache-Control", "no-cache");
+
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        boolean notModified;
+        if (ifNoneMatch != null) {
+            notModified = false;
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    notModified = true;
+                    break;
+                }
+            }
+        } else {
+            long ifModifiedSince;
+            try {
+                ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            } catch (IllegalArgumentException e) {
+                ifModifiedSince = -1;
+            }
+            notModified = ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+        }
+
+        if (notModified) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+        return notModified;
+    }
+
+    // 带任一分页/排序/筛选参数时走分页查询，否则保持返回全部商品
+    private boolean isPageRequest(HttpServletRequest request) {
+        for (String name : PAGE_PARAMS) {
+            if (request.getParameter(name) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void sendProductPage(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Map<String, Object> result = new HashMap<>();
+        ProductQuery query = new ProductQuery();
+
+        try {
+            query.setSortField(ProductQuery.SortField.fromParam(request.getParameter("sort")));
+            // 默认价格升序，其余字段降序 (最新/库存最多在前)
+            String order = request.getParameter("order");
+            if (order == null || order.isEmpty()) {
+                query.setDescending(query.getSortField() != ProductQuery.SortField.PRICE);
+            } else if (order.equalsIgnoreCase("asc") || order.equalsIgnoreCase("desc")) {
+                query.setDescending(order.equalsIgnoreCase("desc"));
+            } else {
+                throw new IllegalArgumentException("order 只能为 asc 或 desc");
+            }
+
+            String limitStr = request.getParameter("limit");
+            int limit = limitStr == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(limitStr);
+            query.setLimit(Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+
+            String minPrice = request.getParameter("minPrice");
+            if (minPrice != null && !minPrice.isEmpty()) {
+                query.setMinPrice(new BigDecimal(minPrice));
+            }
+            String maxPrice = request.getParameter("maxPrice");
+            if (maxPrice != null && !maxPrice.isEmpty()) {
+                query.setMaxPrice(new BigDecimal(maxPrice));
+            }
+            query.setInStockOnly(Boolean.parseBoolean(request.getParameter("inStock")));
+
+            String cursor = request.getParameter("cursor");
+            if (cursor != null && !cursor.isEmpty()) {
+                decodeCursor(cursor, query);
+            }
+
+            List<Product> products = productDAO.getProductPage(query);
+            boolean hasMore = products.size() > query.getLimit();
+            if (hasMore) {
+                products = products.subList(0, query.getLimit());
+            }
+
+            result.put("success", true);
+            result.put("data", products);
+            result.put("hasMore", hasMore);
+            if (hasMore) {
+                result.put("nextCursor", encodeCursor(query, products.get(products.size() - 1)));
+            }
+            sendJsonResponse(response, HttpServletResponse.SC_OK, result);
+
+        } catch (IllegalArgumentException e) {
+            result.put("success", false);
+            result.put("message", "分页参数错误：" + e.getMessage());
+            sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST, result);
+        }
+    }
+
+    /**
+     * 批量获取商品：按请求顺序返回 (重复 ID 只返回一次)，不存在或已删除的 ID 放在 missingIds 中
+     */
+    private void sendProductBatch(HttpServletResponse response, List<Integer> ids) throws IOException {
+        Map<String, Object> result = new HashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            result.put("success", false);
+            result.put("message", "商品ID列表不能为空。");
+            sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST, result);
+            return;
+        }
+
+        List<Integer> uniqueIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        uniqueIds.remove(null);
+        if (uniqueIds.size() > MAX_BATCH_IDS) {
+            result.put("success", false);
+            result.put("message", "单次最多查询 " + MAX_BATCH_IDS + " 个商品。");
+            sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST, result);
+            return;
+        }
+
+        Map<Integer, Product> found = productDAO.getProductsByIds(uniqueIds);
+        if (found == null) {
+            result.put("success", false);
+            result.put("message", "服务器内部错误。");
+            sendJsonResponse(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, result);
+            return;
+        }
+
+        List<Product> products = new ArrayList<>();
+        List<Integer> missingIds = new ArrayList<>();
+        for (Integer id : uniqueIds) {
+            Product product = found.get(id);
+            if (product != null) {
+                products.add(product);
+            } else {
+                missingIds.add(id);
+            }
+        }
+
+        result.put("success", true);
+        result.put("data", products);
+        result.put("missingIds", missingIds);
+        sendJsonResponse(response, HttpServletResponse.SC_OK, result);
+    }
+
+    private void sendSearchResult(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Map<String, Object> result = new HashMap<>();
+        String q = request.getParameter("q");
+        if (q == null || q.trim().isEmpty()) {
+            result.put("success", false);
+            result.put("message", "检索关键词不能为空。");
+            sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST, result);
+            return;
+        }
+
+        int page;
+        int size;
+        try {
+            String pageStr = request.getParameter("page");
+            String sizeStr = request.getParameter("size");
+            page = Math.max(1, pageStr == null ? 1 : Integer.parseInt(pageStr));
+            size = Math.max(1, Math.min(sizeStr == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(sizeStr), MAX_PAGE_SIZE));
+        } catch (NumberFormatException e) {
+            result.put("success", false);
+            result.put("message", "分页参数格式错误。");
+            sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST, result);
+            return;
+        }
+
+        ProductSearchIndex index = ProductSearchIndex.getInstance();
+        if (!index.isBuilt()) {
+            productDAO.rebuildSearchIndex();
+        }
+        ProductSearchIndex.SearchResult hits = index.search(q, page, size);
+
+        // 命中的商品从商品缓存批量取，缓存未命中的一次 IN 查询补齐
+        List<Product> products = new ArrayList<>();
+        Map<Integer, Product> found = productDAO.getProductsByIds(hits.getProductIds());
+        if (found != null) {
+            for (int id : hits.getProductIds()) {
+                Product product = found.get(id);
+                if (product != null) {
+                    products.add(product);
+                }
+            }
+        }
+
+        result.put("success", true);
+        result.put("data", products);
+        result.put("total", hits.getTotal());
+        result.put("page", page);
+        result.put("size", size);
+        sendJsonResponse(response, HttpServletResponse.SC_OK, result);
+    }
+
+    // 游标格式 (Base64 URL 编码)：排序字段:方向:排序值:id，排序条件变化后旧游标失效
+    private String encodeCursor(ProductQuery query, Product last) {
+        String value;
+        switch (query.getSortField()) {
+            case PRICE:
+                value = last.getPrice().toPlainString();
+                break;
+            case CREATED_AT:
+                value = String.valueOf(last.getCreatedAt().getTime());
+                break;
+            case STOCK:
+                value = String.valueOf(last.getStockQuantity());
+                break;
+            default:
+                value = String.valueOf(last.getId());
+        }
+        String raw = query.getSortField().name() + ":" + (query.isDescending() ? "desc" : "asc") + ":" + value + ":" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void decodeCursor(String cursor, ProductQuery query) {
+        String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        String[] parts = raw.split(":");
+        if (parts.length != 4
+                || !parts[0].equals(query.getSortField().name())
+                || !parts[1].equals(query.isDescending() ? "desc" : "asc")) {
+            throw new IllegalArgumentException("游标与当前排序条件不匹配");
+        }
+        query.setCursorValue(parts[2]);
+        query.setCursorId(Integer.parseInt(parts[3]));
+    }
+
     // --- 3. 更新商品 (PUT /api/product/{id}) ---
     @Override
     // 修改doPut方法添加管理员验证
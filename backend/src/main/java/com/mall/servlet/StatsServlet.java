@@ -1,7 +1,14 @@
 package com.mall.servlet;
 
 import com.google.gson.Gson;
+import com.mall.cache.StatsCache;
+import com.mall.dao.SalesRollupDAO;
 import com.mall.dao.StatsDAO;
+import com.mall.stats.StatsBroadcaster;
+import com.mall.stats.StreamTickets;
+import com.mall.stats.TopSellersTracker;
+import com.mall.util.AppConfig;
+import com.mall.util.Metrics;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServlet;
@@ -9,9 +16,19 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
 import java.io.IOException;
+import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 销售统计Servlet (Stats Servlet)
@@ -22,6 +39,34 @@ import java.util.Map;
 public class StatsServlet extends HttpServlet {
 
     private final StatsDAO statsDAO = new StatsDAO();
+    private final SalesRollupDAO salesRollupDAO = new SalesRollupDAO();
+    private final StatsCache statsCache = StatsCache.getInstance();
+    private final TopSellersTracker topSellers = TopSellersTracker.getInstance();
+
+    // 仪表盘各部分统计的并行查询线程数 (所有请求共享，同时也限制了统计查询占用的数据库连接数)
+    private static final int DASHBOARD_THREADS = AppConfig.getInt("STATS_DASHBOARD_THREADS", 5);
+    // 单个部分的最长等待时间 (毫秒)
+    private static final long SECTION_TIMEOUT = AppConfig.getLong("STATS_SECTION_TIMEOUT_MS", 5000);
+
+    // 队列满时在请求线程中直接执行，退化为串行查询而不是拒绝
+    private final ThreadPoolExecutor dashboardExecutor = new ThreadPoolExecutor(DASHBOARD_THREADS, DASHBOARD_THREADS,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(100),
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "stats-dashboard-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    @Override
+    public void destroy() {
+        dashboardExecutor.shutdownNow();
+    }
     private final Gson gson = new Gson();
 
     // 辅助方法：发送 JSON 响应
@@ -32,6 +77,71 @@ public class StatsServlet extends HttpServlet {
         response.getWriter().write(gson.toJson(data));
     }
 
+    /**
+     * 并行查询仪表盘的各个部分，总耗时取决于最慢的部分而不是各部分之和
+     * 每个部分最多等待 STATS_SECTION_TIMEOUT_MS，超时或查询失败 (StatsDAO 抛出 SQLException) 的部分不放入结果，原因记录到 errors；
+     * 超时的查询不会被取消，完成后结果仍会进入统计缓存，供下一次请求使用
+     */
+    private Map<String, Object> loadDashboard(boolean fresh, Map<String, String> errors) {
+        String endDate = java.time.LocalDate.now().toString();
+        String startDate = java.time.LocalDate.now().minusDays(29).toString();
+        String currentYear = String.valueOf(java.time.Year.now().getValue());
+
+        Map<String, StatsCache.Loader<?>> sections = new LinkedHashMap<>();
+        // 统计概览数据
+        sections.put("statsOverview", () -> statsCache.get("overview", fresh, statsDAO::getStatsOverview));
+        // 默认获取最近30天的每日销售数据
+        sections.put("dailySales", () -> statsCache.get("daily:" + startDate + ":" + endDate, fresh,
+                () -> statsDAO.getDailySales(startDate, endDate)));
+        // 当前年份的月度销售数据
+        sections.put("monthlySales", () -> statsCache.get("monthly:" + currentYear, fresh,
+                () -> statsDAO.getMonthlySales(currentYear)));
+        // 前10名热销商品
+        sections.put("topSellingProducts", () -> getTopSellingProducts(TopSellersTracker.Window.ALL, 10, fresh));
+        // 订单状态统计
+        sections.put("orderStatusStats", () -> statsCache.get("status", fresh, statsDAO::getOrderStatusStats));
+
+        Map<String, Future<?>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, StatsCache.Loader<?>> section : sections.entrySet()) {
+            StatsCache.Loader<?> loader = section.getValue();
+            futures.put(section.getKey(), dashboardExecutor.submit(loader::load));
+        }
+
+        Map<String, Object> allStats = new HashMap<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SECTION_TIMEOUT);
+        for (Map.Entry<String, Future<?>> entry : futures.entrySet()) {
+            String name = entry.getKey();
+            try {
+                allStats.put(name, entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                Metrics.increment("stats.dashboard.timeouts");
+                errors.put(name, "查询超时 (" + SECTION_TIMEOUT + "ms)");
+            } catch (ExecutionException e) {
+                Metrics.increment("stats.dashboard.failures");
+                System.err.println("仪表盘统计 " + name + " 查询失败: " + e.getCause());
+                errors.put(name, "查询失败：" + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                errors.put(name, "查询被中断");
+            }
+        }
+        System.out.println("返回的统计概览数据:" + allStats.get("statsOverview")); // 添加日志
+        return allStats;
+    }
+
+    /**
+     * 热销商品排行：优先从内存热销榜读取 (近似值)；热销榜尚未就绪或 fresh 为 true 时查询数据库 (精确值)
+     */
+    private List<Map<String, Object>> getTopSellingProducts(TopSellersTracker.Window window, int limit, boolean fresh)
+            throws SQLException {
+        List<Map<String, Object>> topProducts = fresh ? null : topSellers.top(window, limit);
+        if (topProducts != null) {
+            return topProducts;
+        }
+        return statsCache.get("top:" + window.getParam() + ":" + limit, fresh,
+                () -> statsDAO.getTopSellingProducts(window.since(), limit));
+    }
+
     // --- 处理统计数据请求 (GET /api/stats/{type}) ---
     @Override
     // 修改doGet方法添加管理员验证
@@ -58,30 +168,35 @@ public class StatsServlet extends HttpServlet {
 
             // 获取请求路径，确定统计类型
             String pathInfo = request.getPathInfo();
+            // fresh=true 跳过统计缓存，直接查询最新数据
+            boolean fresh = "true".equalsIgnoreCase(request.getParameter("fresh"));
+
+            if ("/stream".equals(pathInfo)) {
+                // GET /api/stats/stream - 统计面板事件流 (SSE)，推送新订单、状态变化和定期刷新的概览
+                if (!StatsBroadcaster.getInstance().subscribe(request, response)) {
+                    Map<String, String> errorMsg = new HashMap<>();
+                    errorMsg.put("message", "统计推送连接数已达上限，请稍后重试。");
+                    sendJsonResponse(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, errorMsg);
+                }
+                return;
+            }
 
             if (pathInfo == null || pathInfo.equals("/")) {
-                // GET /api/stats - 返回所有统计数据
-                Map<String, Object> allStats = new HashMap<>();
-                
-                // 添加统计概览数据
-                Map<String, Object> statsOverview = statsDAO.getStatsOverview();
-                System.out.println("返回的统计概览数据:" + statsOverview); // 添加日志
-                allStats.put("statsOverview", statsOverview);
-                
-                // 默认获取最近30天的每日销售数据
-                String endDate = java.time.LocalDate.now().toString();
-                String startDate = java.time.LocalDate.now().minusDays(29).toString();
-                allStats.put("dailySales", statsDAO.getDailySales(startDate, endDate));
-                
-                // 获取当前年份的月度销售数据
-                String currentYear = String.valueOf(java.time.Year.now().getValue());
-                allStats.put("monthlySales", statsDAO.getMonthlySales(currentYear));
-                
-                // 获取前10名热销商品
-                allStats.put("topSellingProducts", statsDAO.getTopSellingProducts(10));
-                
-                // 获取订单状态统计
-                allStats.put("orderStatusStats", statsDAO.getOrderStatusStats());
+                // GET /api/stats - 返回所有统计数据 (各部分并行查询，单个部分超时或失败时返回部分结果)
+                Map<String, String> errors = new LinkedHashMap<>();
+                Map<String, Object> allStats = loadDashboard(fresh, errors);
+                if (allStats.isEmpty()) {
+                    // 所有部分都失败 (通常是数据库不可用)：返回错误而不是一份全空的"成功"结果
+                    result.put("success", false);
+                    result.put("message", "统计数据查询失败，请稍后重试。");
+                    result.put("errors", errors);
+                    sendJsonResponse(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, result);
+                    return;
+                }
+                if (!errors.isEmpty()) {
+                    result.put("partial", true);
+                    result.put("errors", errors);
+                }
 
                 result.put("success", true);
                 result.put("data", allStats);
@@ -106,7 +221,10 @@ public class StatsServlet extends HttpServlet {
                                 startDate = java.time.LocalDate.now().minusDays(6).toString();
                             }
 
-                            List<Map<String, Object>> dailySales = statsDAO.getDailySales(startDate, endDate);
+                            String dailyStart = startDate;
+                            String dailyEnd = endDate;
+                            List<Map<String, Object>> dailySales = statsCache.get("daily:" + startDate + ":" + endDate, fresh,
+                                    () -> statsDAO.getDailySales(dailyStart, dailyEnd));
                             result.put("success", true);
                             result.put("data", dailySales);
                             result.put("startDate", startDate);
@@ -123,7 +241,9 @@ public class StatsServlet extends HttpServlet {
                                 year = String.valueOf(java.time.Year.now().getValue());
                             }
 
-                            List<Map<String, Object>> monthlySales = statsDAO.getMonthlySales(year);
+                            String monthlyYear = year;
+                            List<Map<String, Object>> monthlySales = statsCache.get("monthly:" + year, fresh,
+                                    () -> statsDAO.getMonthlySales(monthlyYear));
                             result.put("success", true);
                             result.put("data", monthlySales);
                             result.put("year", year);
@@ -146,25 +266,43 @@ public class StatsServlet extends HttpServlet {
                                 }
                             }
 
-                            List<Map<String, Object>> topProducts = statsDAO.getTopSellingProducts(limit);
+                            // 统计窗口：hour / day / week / all (默认全部历史)
+                            TopSellersTracker.Window window = TopSellersTracker.Window.fromParam(request.getParameter("window"));
+                            if (window == null) {
+                                Map<String, Object> windowError = new HashMap<>();
+                                windowError.put("success", false);
+                                windowError.put("message", "无效的统计窗口。支持的窗口：hour, day, week, all");
+                                sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST, windowError);
+                                break;
+                            }
+
+                            List<Map<String, Object>> topProducts = getTopSellingProducts(window, limit, fresh);
                             result.put("success", true);
                             result.put("data", topProducts);
                             result.put("limit", limit);
+                            result.put("window", window.getParam());
                             sendJsonResponse(response, HttpServletResponse.SC_OK, result);
                             break;
 
                         case "status":
                             // 订单状态统计
-                            List<Map<String, Object>> statusStats = statsDAO.getOrderStatusStats();
+                            List<Map<String, Object>> statusStats = statsCache.get("status", fresh, statsDAO::getOrderStatusStats);
                             result.put("success", true);
                             result.put("data", statusStats);
                             sendJsonResponse(response, HttpServletResponse.SC_OK, result);
                             break;
 
+                        case "metrics":
+                            // 进程内运行指标 (计数器 + 仪表)，如下单锁冲突重试次数、队列长度等
+                            result.put("success", true);
+                            result.put("data", Metrics.snapshot());
+                            sendJsonResponse(response, HttpServletResponse.SC_OK, result);
+                            break;
+
                         default:
                             // 无效的统计类型
                             Map<String, String> errorMsg = new HashMap<>();
-                            errorMsg.put("message", "无效的统计类型。支持的类型：daily, monthly, top, top-products, status");
+                            errorMsg.put("message", "无效的统计类型。支持的类型：daily, monthly, top, top-products, status, metrics");
                             sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST, errorMsg);
                     }
                 } else {
@@ -182,4 +320,56 @@ public class StatsServlet extends HttpServlet {
             sendJsonResponse(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, errorMsg);
         }
     }
-}
\ No newline at end of file
+
+    // --- 换取统计事件流票据 (POST /api/stats/stream/ticket)；重建销售统计汇总表 (POST /api/stats/rollup/rebuild)，用于回填或修复汇总数据 ---
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Boolean isAdmin = (Boolean) request.getAttribute("isAdmin");
+        Map<String, Object> result = new HashMap<>();
+
+        if (isAdmin == null || !isAdmin) {
+            Map<String, String> errorMsg = new HashMap<>();
+            errorMsg.put("message", "只有管理员才能访问统计数据。");
+            sendJsonResponse(response, HttpServletResponse.SC_FORBIDDEN, errorMsg);
+            return;
+        }
+        if ("/stream/ticket".equals(request.getPathInfo())) {
+            // 票据只能通过 Authorization 头换取，不能用票据再换票据
+            String ticket = StreamTickets.getInstance().issue((String) request.getAttribute("userId"),
+                    (String) request.getAttribute("username"), true);
+            if (ticket == null) {
+                Map<String, String> errorMsg = new HashMap<>();
+                errorMsg.put("message", "统计事件流票据签发过多，请稍后重试。");
+                sendJsonResponse(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, errorMsg);
+                return;
+            }
+            Map<String, Object> data = new HashMap<>();
+            data.put("ticket", ticket);
+            result.put("success", true);
+            result.put("data", data);
+            sendJsonResponse(response, HttpServletResponse.SC_OK, result);
+            return;
+        }
+        if (!"/rollup/rebuild".equals(request.getPathInfo())) {
+            Map<String, String> errorMsg = new HashMap<>();
+            errorMsg.put("message", "错误的请求路径格式，应为 /api/stats/rollup/rebuild。");
+            sendJsonResponse(response, HttpServletResponse.SC_BAD_REQUEST, errorMsg);
+            return;
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            int rows = salesRollupDAO.rebuild();
+            statsCache.clear();
+            result.put("success", true);
+            result.put("rows", rows);
+            result.put("elapsedMs", System.currentTimeMillis() - start);
+            sendJsonResponse(response, HttpServletResponse.SC_OK, result);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            Map<String, String> errorMsg = new HashMap<>();
+            errorMsg.put("message", "重建销售统计汇总表失败：" + e.getMessage());
+            sendJsonResponse(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, errorMsg);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.mall.stats;
+
+import com.google.gson.Gson;
+import com.mall.cache.StatsCache;
+import com.mall.dao.StatsDAO;
+import com.mall.util.AppConfig;
+import com.mall.util.Metrics;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 管理员统计面板的 Server-Sent Events 推送 (GET /stats/stream)
+ * - 连接建立后先推送一次 snapshot (统计概览 + 热销商品)，之后推送增量事件：
+ *   order (新订单)、status (订单状态变化)、deleted (订单删除)，事件中带有订单数、待处理订单数、收入的变化量，客户端自行累加
+ * - 每 STATS_STREAM_OVERVIEW_MS 推送一次 overview 校正客户端累加的误差；
+ *   统计只在服务端计算一次 (经过统计缓存)，所有连接共享同一条消息，管理员数量不影响数据库负载
+ * - 每 STATS_STREAM_HEARTBEAT_MS 发送一次注释行心跳，防止代理断开空闲连接，也用于发现已断开的客户端
+ * 使用 Servlet 异步非阻塞输出：每个连接有一个待发送队列，写不出去时等 onWritePossible 再发，
+ * 不占用请求线程；队列超过 STATS_STREAM_MAX_PENDING 的慢客户端直接断开 (EventSource 会自动重连)。
+ */
+public class StatsBroadcaster {
+
+    private static final long HEARTBEAT_INTERVAL = AppConfig.getLong("STATS_STREAM_HEARTBEAT_MS", 15000);
+    private static final long OVERVIEW_INTERVAL = AppConfig.getLong("STATS_STREAM_OVERVIEW_MS", 60000);
+    private static final int MAX_CLIENTS = AppConfig.getInt("STATS_STREAM_MAX_CLIENTS", 100);
+    private static final int MAX_PENDING = AppConfig.getInt("STATS_STREAM_MAX_PENDING", 100);
+    // 客户端断线后的重连间隔 (毫秒)，通过 retry 字段告知 EventSource
+    private static final long RECONNECT_DELAY = AppConfig.getLong("STATS_STREAM_RETRY_MS", 3000);
+
+    // 构造函数用到上面的配置，必须在配置之后创建
+    private static final StatsBroadcaster INSTANCE = new StatsBroadcaster();
+
+    private static final String HEARTBEAT = ": ping\n\n";
+
+    private final StatsDAO statsDAO = new StatsDAO();
+    private final Gson gson = new Gson();
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    // 已占用的连接名额：先占名额再建立连接，并发订阅时也不会超过 MAX_CLIENTS；连接关闭时归还
+    private final AtomicInteger connections = new AtomicInteger();
+    // 单线程：事件按发生顺序推送，统计只计算一次
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stats-stream");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private StatsBroadcaster() {
+        scheduler.scheduleWithFixedDelay(() -> broadcast(HEARTBEAT),
+                HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::broadcastOverview,
+                OVERVIEW_INTERVAL, OVERVIEW_INTERVAL, TimeUnit.MILLISECONDS);
+        Metrics.registerGauge("statsStream.subscribers", subscribers::size);
+    }
+
+    public static StatsBroadcaster getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 把当前请求转为异步的事件流连接 (Servlet 及其经过的 Filter 都必须支持异步)
+     * @return 连接数已达上限时返回 false，调用方应返回 503
+     */
+    public boolean subscribe(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (connections.incrementAndGet() > MAX_CLIENTS) {
+            connections.decrementAndGet();
+            Metrics.increment("statsStream.rejected");
+            return false;
+        }
+
+        Subscriber subscriber;
+        try {
+            response.setContentType("text/event-stream");
+            response.setCharacterEncoding("UTF-8");
+            response.setHeader("Cache-Control", "no-cache");
+            // 关闭反向代理 (nginx) 的响应缓冲
+            response.setHeader("X-Accel-Buffering", "no");
+
+            AsyncContext context = request.startAsync();
+            // 不超时，由心跳写入失败发现断开的连接
+            context.setTimeout(0);
+            subscriber = new Subscriber(context, response.getOutputStream());
+            context.addListener(subscriber);
+            // 先切换到非阻塞输出再加入广播列表：广播线程调用 isReady 时输出必须已设置 WriteListener
+            subscriber.out.setWriteListener(subscriber);
+        } catch (IOException | RuntimeException e) {
+            connections.decrementAndGet();
+            throw e;
+        }
+        subscriber.send("retry: " + RECONNECT_DELAY + "\n\n");
+        subscribers.add(subscriber);
+        // 加入列表之前连接可能已经断开，close 时还不在列表中
+        if (subscriber.isClosed()) {
+            subscribers.remove(subscriber);
+        }
+        Metrics.increment("statsStream.connects");
+
+        try {
+            scheduler.execute(() -> {
+                Map<String, Object> snapshot = loadSnapshot(false);
+                if (snapshot != null) {
+                    subscriber.send(frame("snapshot", snapshot));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            subscriber.close();
+        }
+        return true;
+    }
+
+    /**
+     * 新订单已提交 (新订单状态均为 PENDING)
+     */
+    public void publishOrderCreated(int orderId, BigDecimal totalAmount) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put("orderId", orderId);
+        data.put("status", "PENDING");
+        data.put("totalAmount", totalAmount);
+        data.put("totalOrdersDelta", 1);
+        data.put("pendingOrdersDelta", 1);
+        data.put("revenueDelta", totalAmount);
+        publish("order", data);
+    }
+
+    /**
+     * 订单状态已修改 (事务已提交)
+     */
+    public void publishStatusChanged(int orderId, String oldStatus, String newStatus, BigDecimal totalAmount) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        String from = oldStatus.toUpperCase();
+        String to = newStatus.toUpperCase();
+        // 总收入不含已取消订单
+        BigDecimal revenueDelta = BigDecimal.ZERO;
+        if (from.equals("CANCELLED") && !to.equals("CANCELLED")) {
+            revenueDelta = totalAmount;
+        } else if (!from.equals("CANCELLED") && to.equals("CANCELLED")) {
+            revenueDelta = totalAmount.negate();
+        }
+        int pendingDelta = (to.equals("PENDING") ? 1 : 0) - (from.equals("PENDING") ? 1 : 0);
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("orderId", orderId);
+        data.put("oldStatus", from);
+        data.put("status", to);
+        data.put("totalAmount", totalAmount);
+        data.put("totalOrdersDelta", 0);
+        data.put("pendingOrdersDelta", pendingDelta);
+        data.put("revenueDelta", revenueDelta);
+        publish("status", data);
+    }
+
+    /**
+     * 订单已删除 (事务已提交)：从订单数、待处理订单数和收入中减去该订单
+     */
+    public void publishOrderDeleted(int orderId, String status, BigDecimal totalAmount) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        String from = status.toUpperCase();
+        // 总收入不含已取消订单
+        BigDecimal revenueDelta = from.equals("CANCELLED") ? BigDecimal.ZERO : totalAmount.negate();
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("orderId", orderId);
+        data.put("oldStatus", from);
+        data.put("totalAmount", totalAmount);
+        data.put("totalOrdersDelta", -1);
+        data.put("pendingOrdersDelta", from.equals("PENDING") ? -1 : 0);
+        data.put("revenueDelta", revenueDelta);
+        publish("deleted", data);
+    }
+
+    /**
+     * 停止推送并断开所有连接
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+    }
+
+    private void publish(String event, Map<String, Object> data) {
+        data.put("time", System.currentTimeMillis());
+        String frame = frame(event, data);
+        try {
+            scheduler.execute(() -> broadcast(frame));
+        } catch (RejectedExecutionException e) {
+            // 应用正在停止
+        }
+    }
+
+    private void broadcast(String frame) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.send(frame);
+        }
+    }
+
+    private void broadcastOverview() {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        // 定期校正直接查询最新统计 (同时刷新统计缓存)，缓存中的旧值可能比客户端累加的结果还旧
+        Map<String, Object> snapshot = loadSnapshot(true);
+        if (snapshot != null) {
+            broadcast(frame("overview", snapshot));
+        }
+    }
+
+    // 统计概览走统计缓存，热销商品读内存热销榜 (未就绪时不推送，客户端保留已有数据)
+    private Map<String, Object> loadSnapshot(boolean fresh) {
+        try {
+            Map<String, Object> snapshot = new HashMap<>();
+            snapshot.put("statsOverview", StatsCache.getInstance().get("overview", fresh, statsDAO::getStatsOverview));
+            List<Map<String, Object>> topProducts = TopSellersTracker.getInstance().top(TopSellersTracker.Window.ALL, 10);
+            if (topProducts != null) {
+                snapshot.put("topSellingProducts", topProducts);
+            }
+            snapshot.put("time", System.currentTimeMillis());
+            return snapshot;
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("统计推送加载概览失败: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private String frame(String event, Object data) {
+        // JSON 中不含换行，一条事件只需一行 data
+        return "event: " + event + "\ndata: " + gson.toJson(data) + "\n\n";
+    }
+
+    /**
+     * 一个事件流连接
+     */
+    private final class Subscriber implements WriteListener, AsyncListener {
+        private final AsyncContext context;
+        private final ServletOutputStream out;
+        // 以下字段由 this 保护
+        private final Queue<String> pending = new ArrayDeque<>();
+        private boolean unflushed;
+        private boolean closed;
+
+        Subscriber(AsyncContext context, ServletOutputStream out) {
+            this.context = context;
+            this.out = out;
+        }
+
+        void send(String frame) {
+            boolean ok;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (pending.size() >= MAX_PENDING) {
+                    Metrics.increment("statsStream.slowClients");
+                    ok = false;
+                } else {
+                    pending.add(frame);
+                    ok = drain();
+                }
+            }
+            if (!ok) {
+                close();
+            }
+        }
+
+        // 调用方持有 this 锁；在输出可写期间写出队列中的消息并 flush，写不出去时等待 onWritePossible
+        // 返回 false 表示连接已断开
+        private boolean drain() {
+            try {
+                while (out.isReady()) {
+                    String frame = pending.poll();
+                    if (frame == null) {
+                        if (!unflushed) {
+                            return true;
+                        }
+                        unflushed = false;
+                        out.flush();
+                        continue;
+                    }
+                    out.write(frame.getBytes(StandardCharsets.UTF_8));
+                    unflushed = true;
+                }
+                return true;
+            } catch (IOException | IllegalStateException e) {
+                return false;
+            }
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                pending.clear();
+            }
+            subscribers.remove(this);
+            connections.decrementAndGet();
+            Metrics.increment("statsStream.disconnects");
+            try {
+                context.complete();
+            } catch (IllegalStateException e) {
+                // 连接已结束
+            }
+        }
+
+        @Override
+        public void onWritePossible() {
+            boolean ok;
+            synchronized (this) {
+                ok = closed || drain();
+            }
+            if (!ok) {
+                close();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            close();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.mall.stats;
+
+import com.mall.util.AppConfig;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 统计事件流 (GET /stats/stream) 的一次性连接票据
+ * 浏览器的 EventSource 不能设置请求头，认证信息只能放在 URL 中，而 URL 会出现在访问日志、代理日志和浏览器历史里，
+ * 所以不能直接放 JWT：管理员先用 Authorization 头换取票据 (POST /stats/stream/ticket)，再用 ?ticket= 建立连接。
+ * - 票据只能用于事件流，使用一次即作废，STATS_STREAM_TICKET_TTL_MS 内未使用也作废
+ * - 票据只保存在本实例内存中，多实例部署时换票和连接需要落在同一实例 (会话保持)
+ * EventSource 自动重连会带着已使用的票据，连接被拒绝后由前端重新换票连接。
+ */
+public class StreamTickets {
+
+    private static final long TICKET_TTL = AppConfig.getLong("STATS_STREAM_TICKET_TTL_MS", 30000);
+    // 未使用票据的上限，防止不断换票撑满内存
+    private static final int MAX_TICKETS = AppConfig.getInt("STATS_STREAM_MAX_TICKETS", 1000);
+
+    // 构造函数用到上面的配置，必须在配置之后创建
+    private static final StreamTickets INSTANCE = new StreamTickets();
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Ticket> tickets = new ConcurrentHashMap<>();
+
+    public static StreamTickets getInstance() {
+        return INSTANCE;
+    }
+
+    StreamTickets() {
+    }
+
+    /**
+     * 为已认证的管理员签发票据
+     * @return 票据字符串；未使用的票据过多时返回 null
+     */
+    public String issue(String userId, String username, boolean isAdmin) {
+        long now = System.currentTimeMillis();
+        if (tickets.size() >= MAX_TICKETS) {
+            purgeExpired(now);
+            if (tickets.size() >= MAX_TICKETS) {
+                System.err.println("统计事件流票据过多，拒绝签发: " + tickets.size());
+                return null;
+            }
+        }
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        String ticket = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        tickets.put(ticket, new Ticket(userId, username, isAdmin, now + TICKET_TTL));
+        return ticket;
+    }
+
+    /**
+     * 使用票据：无论是否过期都会作废
+     * @return 票据对应的用户；票据不存在、已使用或已过期时返回 null
+     */
+    public Ticket redeem(String ticket) {
+        if (ticket == null) {
+            return null;
+        }
+        Ticket redeemed = tickets.remove(ticket);
+        if (redeemed == null || redeemed.expiresAt < System.currentTimeMillis()) {
+            return null;
+        }
+        return redeemed;
+    }
+
+    private void purgeExpired(long now) {
+        Iterator<Ticket> iterator = tickets.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expiresAt < now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public static class Ticket {
+        private final String userId;
+        private final String username;
+        private final boolean isAdmin;
+        private final long expiresAt;
+
+        Ticket(String userId, String username, boolean isAdmin, long expiresAt) {
+            this.userId = userId;
+            this.username = username;
+            this.isAdmin = isAdmin;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public boolean isAdmin() {
+            return isAdmin;
+        }
+    }
+}
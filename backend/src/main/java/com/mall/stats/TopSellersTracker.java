@@ -0,0 +1,447 @@
+package com.mall.stats;
+
+import com.mall.dao.StatsDAO;
+import com.mall.util.AppConfig;
+import com.mall.util.Metrics;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 热销商品榜 (进程内，近似统计)
+ * 用 Space-Saving 算法只保留 TOP_SELLERS_CAPACITY 个商品计数器，查询不再扫描全部订单历史：
+ * - 全部历史一组计数器；最近一周按 10 分钟分桶，每桶一组计数器，查询最近一小时/一天/一周时合并对应的桶
+ * - OrderDAO 下单成功后计入，订单取消 (或恢复) 时移出 (或重新计入)；删除订单不回调，由定期重算纠正
+ * - 每 TOP_SELLERS_RECOUNT_MS 从数据库精确重算一次，替换全部计数器，纠正淘汰误差和漏记；
+ *   重算以订单ID水位为界，重算期间的事件只重放水位之后的订单，不会重复计入
+ * 首次重算完成前 top 返回 null，调用方应改为直接查询数据库。
+ * record 在每个订单的提交回调中执行，持锁时间要短：查询时只在锁内取出当前桶的副本和历史桶的引用，合并在锁外完成；
+ * 历史桶 (当前桶之前的桶) 被查询引用后写时复制，合并结果按 (当前桶, 历史桶版本) 缓存，每个窗口每 10 分钟只完整合并一次。
+ */
+public class TopSellersTracker {
+
+    private static final boolean ENABLED = AppConfig.getBoolean("TOP_SELLERS_ENABLED", true);
+    // 每组计数器最多跟踪的商品数，需明显大于榜单长度，被淘汰的商品误差才不会影响榜单
+    private static final int CAPACITY = AppConfig.getInt("TOP_SELLERS_CAPACITY", 1000);
+    private static final long RECOUNT_INTERVAL = AppConfig.getLong("TOP_SELLERS_RECOUNT_MS", 600000);
+
+    private static final long BUCKET_MS = 10 * 60 * 1000L;
+    // 最近一周的桶数
+    private static final int BUCKETS = 7 * 24 * 6;
+
+    // 构造函数用到上面的配置，必须在配置之后创建
+    private static final TopSellersTracker INSTANCE = new TopSellersTracker();
+
+    /**
+     * 统计时间窗口 (按桶对齐：最近一小时为当前桶加前 5 个桶)
+     */
+    public enum Window {
+        HOUR("hour", 6),
+        DAY("day", 24 * 6),
+        WEEK("week", BUCKETS),
+        ALL("all", 0);
+
+        private final String param;
+        private final int buckets;
+
+        Window(String param, int buckets) {
+            this.param = param;
+            this.buckets = buckets;
+        }
+
+        public String getParam() {
+            return param;
+        }
+
+        /**
+         * 窗口起始时间，全部历史返回 null
+         */
+        public Timestamp since() {
+            return buckets == 0 ? null : new Timestamp(System.currentTimeMillis() - buckets * BUCKET_MS);
+        }
+
+        /**
+         * 解析请求参数，为空时默认全部历史，无效值返回 null
+         */
+        public static Window fromParam(String param) {
+            if (param == null || param.isEmpty()) {
+                return ALL;
+            }
+            for (Window window : values()) {
+                if (window.param.equalsIgnoreCase(param)) {
+                    return window;
+                }
+            }
+            return null;
+        }
+    }
+
+    static class Counter {
+        final int productId;
+        String productName;
+        long quantity;
+        BigDecimal revenue = BigDecimal.ZERO;
+
+        Counter(int productId, String productName) {
+            this.productId = productId;
+            this.productName = productName;
+        }
+
+        Counter copy() {
+            Counter copy = new Counter(productId, productName);
+            copy.quantity = quantity;
+            copy.revenue = revenue;
+            return copy;
+        }
+    }
+
+    /**
+     * Space-Saving：计数器满时淘汰数量最小的商品，新商品继承它的计数 (只会高估，不会漏掉真正的热销商品)
+     * 计数器同时按数量排序，淘汰时取最小值为 O(log n)
+     */
+    static class Sketch {
+        final int capacity;
+        final Map<Integer, Counter> counters = new HashMap<>();
+        // 排序依据是可变的 quantity：修改计数器前先移出，修改后再放回
+        private final TreeSet<Counter> byQuantity = new TreeSet<>((a, b) -> a.quantity != b.quantity
+                ? Long.compare(a.quantity, b.quantity)
+                : Integer.compare(a.productId, b.productId));
+        // 已被查询线程引用 (在锁外读取)，之后不能再修改，写入前先复制
+        boolean shared;
+
+        Sketch(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void add(int productId, String productName, long quantity, BigDecimal revenue) {
+            Counter counter = counters.get(productId);
+            if (counter == null) {
+                if (quantity <= 0) {
+                    // 要移出的商品已被淘汰，说明它不在榜单头部，忽略
+                    return;
+                }
+                counter = new Counter(productId, productName);
+                if (counters.size() >= capacity) {
+                    Counter min = byQuantity.pollFirst();
+                    counters.remove(min.productId);
+                    counter.quantity = min.quantity;
+                    counter.revenue = min.revenue;
+                }
+                counters.put(productId, counter);
+            } else {
+                byQuantity.remove(counter);
+            }
+            if (productName != null) {
+                counter.productName = productName;
+            }
+            counter.quantity = Math.max(0, counter.quantity + quantity);
+            counter.revenue = counter.revenue.add(revenue).max(BigDecimal.ZERO);
+            byQuantity.add(counter);
+        }
+
+        Sketch copy() {
+            Sketch copy = new Sketch(capacity);
+            for (Counter c : counters.values()) {
+                Counter counter = c.copy();
+                copy.counters.put(counter.productId, counter);
+                copy.byQuantity.add(counter);
+            }
+            return copy;
+        }
+    }
+
+    // 一个窗口内历史桶的合并结果，只读
+    private static class MergedBuckets {
+        final long currentId;
+        final long generation;
+        final Map<Integer, Counter> counters;
+
+        MergedBuckets(long currentId, long generation, Map<Integer, Counter> counters) {
+            this.currentId = currentId;
+            this.generation = generation;
+            this.counters = counters;
+        }
+    }
+
+    private static class Event {
+        final int orderId;
+        final int productId;
+        final String productName;
+        final int quantity;
+        final BigDecimal revenue;
+        final long orderTime;
+
+        Event(int orderId, int productId, String productName, int quantity, BigDecimal revenue, long orderTime) {
+            this.orderId = orderId;
+            this.productId = productId;
+            this.productName = productName;
+            this.quantity = quantity;
+            this.revenue = revenue;
+            this.orderTime = orderTime;
+        }
+    }
+
+    private final StatsDAO statsDAO;
+
+    // 以下字段都由 this 保护
+    private Sketch allTime = new Sketch(CAPACITY);
+    private Sketch[] buckets = new Sketch[BUCKETS];
+    // 每个槽位当前存放的桶编号 (时间 / BUCKET_MS)
+    private long[] bucketIds = new long[BUCKETS];
+    private boolean ready;
+    // 历史桶的版本：历史桶被修改 (取消/恢复较早的订单) 或被重算替换时递增，使合并缓存失效
+    private long closedGeneration;
+    // 重算期间收到的事件，重算结果替换计数器后重放，避免丢失 (不为 null 表示正在重算)
+    private List<Event> eventsDuringRecount;
+
+    private final Map<Window, MergedBuckets> mergedCache = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler;
+
+    private TopSellersTracker() {
+        statsDAO = new StatsDAO();
+        if (!ENABLED) {
+            scheduler = null;
+            System.out.println("热销商品榜已禁用 (TOP_SELLERS_ENABLED=false)，热销统计直接查询数据库。");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "top-sellers-recount");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::recount, 0, RECOUNT_INTERVAL, TimeUnit.MILLISECONDS);
+        Metrics.registerGauge("topSellers.tracked", this::trackedCount);
+    }
+
+    // 不启动定时重算，由调用方执行 recount，供单元测试使用
+    TopSellersTracker(StatsDAO statsDAO) {
+        this.statsDAO = statsDAO;
+        this.scheduler = null;
+    }
+
+    public static TopSellersTracker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 记录一条订单项 (订单提交或恢复时 quantity 为正，取消时为负)
+     * @param orderId 所属订单，重算时据此判断该事件是否已包含在查询结果中
+     * @param orderTime 下单时间 (毫秒)，决定计入哪个时间桶
+     */
+    public void record(int orderId, int productId, String productName, int quantity, BigDecimal revenue, long orderTime) {
+        if (!ENABLED) {
+            return;
+        }
+        Event event = new Event(orderId, productId, productName, quantity, revenue, orderTime);
+        synchronized (this) {
+            apply(event);
+            if (eventsDuringRecount != null) {
+                eventsDuringRecount.add(event);
+            }
+        }
+        Metrics.increment("topSellers.events");
+    }
+
+    /**
+     * 指定窗口内销量最高的 limit 个商品 (productId, productName, totalSales, totalRevenue)
+     * @return 未启用或首次重算尚未完成时返回 null
+     */
+    public List<Map<String, Object>> top(Window window, int limit) {
+        List<Counter> counters = new ArrayList<>();
+        long currentId = System.currentTimeMillis() / BUCKET_MS;
+        long generation = 0;
+        MergedBuckets cached = null;
+        List<Sketch> closed = null;
+        synchronized (this) {
+            if (!ready) {
+                return null;
+            }
+            if (window == Window.ALL) {
+                for (Counter c : allTime.counters.values()) {
+                    counters.add(c.copy());
+                }
+            } else {
+                // 锁内只复制当前桶 (最多 CAPACITY 个计数器)，历史桶取引用并标记为写时复制
+                Sketch current = bucket(currentId);
+                if (current != null) {
+                    for (Counter c : current.counters.values()) {
+                        counters.add(c.copy());
+                    }
+                }
+                generation = closedGeneration;
+                cached = mergedCache.get(window);
+                if (cached == null || cached.currentId != currentId || cached.generation != generation) {
+                    cached = null;
+                    closed = new ArrayList<>();
+                    for (long bucketId = currentId - window.buckets + 1; bucketId < currentId; bucketId++) {
+                        Sketch sketch = bucket(bucketId);
+                        if (sketch != null) {
+                            sketch.shared = true;
+                            closed.add(sketch);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (window != Window.ALL) {
+            if (cached == null) {
+                cached = new MergedBuckets(currentId, generation, mergeBuckets(closed));
+                mergedCache.put(window, cached);
+            }
+            Map<Integer, Counter> merged = new HashMap<>();
+            for (Counter c : cached.counters.values()) {
+                merged.put(c.productId, c.copy());
+            }
+            for (Counter c : counters) {
+                Counter total = merged.computeIfAbsent(c.productId, id -> new Counter(id, c.productName));
+                total.quantity += c.quantity;
+                total.revenue = total.revenue.add(c.revenue);
+            }
+            counters = new ArrayList<>(merged.values());
+        }
+
+        counters.removeIf(c -> c.quantity <= 0);
+        counters.sort((a, b) -> a.quantity != b.quantity
+                ? Long.compare(b.quantity, a.quantity)
+                : Integer.compare(a.productId, b.productId));
+
+        List<Map<String, Object>> topProducts = new ArrayList<>();
+        for (Counter c : counters.subList(0, Math.min(limit, counters.size()))) {
+            Map<String, Object> product = new HashMap<>();
+            product.put("productId", c.productId);
+            product.put("productName", c.productName);
+            product.put("totalSales", (int) c.quantity);
+            product.put("totalRevenue", c.revenue);
+            topProducts.add(product);
+        }
+        return topProducts;
+    }
+
+    /**
+     * 从数据库精确重算全部历史和最近一周的计数器，然后重放重算期间收到的事件
+     * 先取订单ID水位，查询只统计水位以内的订单，重放只针对水位之后的订单，同一订单不会既被查询到又被重放。
+     * 漏记 (由下一次重算纠正)：水位以内但查询时尚未提交或从库尚未同步的订单，以及重算期间对水位以内订单的取消/恢复
+     */
+    public void recount() {
+        synchronized (this) {
+            if (eventsDuringRecount != null) {
+                return;
+            }
+            eventsDuringRecount = new ArrayList<>();
+        }
+        long start = System.currentTimeMillis();
+        try {
+            int watermark = statsDAO.getMaxOrderId();
+            Sketch newAllTime = new Sketch(CAPACITY);
+            for (Map<String, Object> row : statsDAO.getTopSellingProducts(null, CAPACITY, watermark)) {
+                newAllTime.add((Integer) row.get("productId"), (String) row.get("productName"),
+                        (Integer) row.get("totalSales"), (BigDecimal) row.get("totalRevenue"));
+            }
+
+            Sketch[] newBuckets = new Sketch[BUCKETS];
+            long[] newBucketIds = new long[BUCKETS];
+            Timestamp since = new Timestamp((start / BUCKET_MS - BUCKETS + 1) * BUCKET_MS);
+            for (Map<String, Object> row : statsDAO.getProductSalesByBucket(since, (int) (BUCKET_MS / 1000), watermark)) {
+                long bucketId = ((Timestamp) row.get("bucketStart")).getTime() / BUCKET_MS;
+                int slot = (int) (bucketId % BUCKETS);
+                if (newBuckets[slot] == null || newBucketIds[slot] != bucketId) {
+                    newBuckets[slot] = new Sketch(CAPACITY);
+                    newBucketIds[slot] = bucketId;
+                }
+                newBuckets[slot].add((Integer) row.get("productId"), (String) row.get("productName"),
+                        (Integer) row.get("totalSales"), (BigDecimal) row.get("totalRevenue"));
+            }
+
+            synchronized (this) {
+                allTime = newAllTime;
+                buckets = newBuckets;
+                bucketIds = newBucketIds;
+                closedGeneration++;
+                for (Event event : eventsDuringRecount) {
+                    if (event.orderId > watermark) {
+                        apply(event);
+                    }
+                }
+                ready = true;
+            }
+            Metrics.increment("topSellers.recounts");
+            System.out.println("热销商品榜重算完成，耗时 " + (System.currentTimeMillis() - start) + "ms。");
+        } catch (SQLException | RuntimeException e) {
+            Metrics.increment("topSellers.recountFailures");
+            System.err.println("热销商品榜重算失败: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            synchronized (this) {
+                eventsDuringRecount = null;
+            }
+        }
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private synchronized int trackedCount() {
+        return allTime.counters.size();
+    }
+
+    // 调用方持有 this 锁
+    private void apply(Event event) {
+        BigDecimal revenue = event.revenue != null ? event.revenue : BigDecimal.ZERO;
+        allTime.add(event.productId, event.productName, event.quantity, revenue);
+
+        long bucketId = event.orderTime / BUCKET_MS;
+        long currentId = System.currentTimeMillis() / BUCKET_MS;
+        if (bucketId <= currentId - BUCKETS) {
+            // 早于最近一周，只影响全部历史
+            return;
+        }
+        int slot = (int) (bucketId % BUCKETS);
+        if (buckets[slot] == null || bucketIds[slot] < bucketId) {
+            buckets[slot] = new Sketch(CAPACITY);
+            bucketIds[slot] = bucketId;
+        } else if (bucketIds[slot] > bucketId) {
+            return;
+        }
+        if (buckets[slot].shared) {
+            buckets[slot] = buckets[slot].copy();
+        }
+        if (bucketId < currentId) {
+            closedGeneration++;
+        }
+        buckets[slot].add(event.productId, event.productName, event.quantity, revenue);
+    }
+
+    // 调用方持有 this 锁；桶不存在或槽位已被更新的桶占用时返回 null
+    private Sketch bucket(long bucketId) {
+        int slot = (int) (bucketId % BUCKETS);
+        return buckets[slot] != null && bucketIds[slot] == bucketId ? buckets[slot] : null;
+    }
+
+    // 在锁外执行：合并的桶都已标记为写时复制，不会再被修改；返回新的计数器
+    private static Map<Integer, Counter> mergeBuckets(List<Sketch> sketches) {
+        Map<Integer, Counter> merged = new HashMap<>();
+        for (Sketch sketch : sketches) {
+            for (Counter c : sketch.counters.values()) {
+                Counter total = merged.computeIfAbsent(c.productId, id -> new Counter(id, c.productName));
+                total.quantity += c.quantity;
+                total.revenue = total.revenue.add(c.revenue);
+            }
+        }
+        return merged;
+    }
+}
@@ -1,23 +1,62 @@
 package com.mall.util;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * 数据库连接工具类
+ * 基于 HikariCP 连接池，getConnection() 从池中借出连接，close() 归还连接。
+ * 当前线程绑定了 UnitOfWork 时，getConnection() 返回该请求共享的连接。
+ *
+ * 读写分离：配置了 DB_READ_URL 时，只读 DAO 方法通过 getReadConnection() 走只读库；
+ * 写请求内、事务内以及用户写操作后 DB_READ_STICKY_MS 毫秒内仍读主库 (read-your-writes)。
+ */
 public class DBUtil {
 
     // 从环境变量获取数据库连接信息
 
-    private static final String URL = System.getenv("DB_URL") != null ? 
-        System.getenv("DB_URL") : 
+    private static final String URL = System.getenv("DB_URL") != null ?
+        System.getenv("DB_URL") :
         "jdbc:mysql://mysql:3306/mall_system?useSSL=false&serverTimezone=Asia/Shanghai&allowPublicKeyRetrieval=true";
 
-    private static final String USER = System.getenv("DB_USER") != null ? 
+    private static final String USER = System.getenv("DB_USER") != null ?
         System.getenv("DB_USER") : "root";
-    
-    private static final String PASSWORD = System.getenv("DB_PASSWORD") != null ? 
+
+    private static final String PASSWORD = System.getenv("DB_PASSWORD") != null ?
         System.getenv("DB_PASSWORD") : "Mimashi1";
 
+    // 只读库 (可选)，未配置时所有读操作走主库；账号密码默认与主库相同
+    private static final String READ_URL = System.getenv("DB_READ_URL");
+
+    private static final String READ_USER = System.getenv("DB_READ_USER") != null ?
+        System.getenv("DB_READ_USER") : USER;
+
+    private static final String READ_PASSWORD = System.getenv("DB_READ_PASSWORD") != null ?
+        System.getenv("DB_READ_PASSWORD") : PASSWORD;
+
+    // 用户写操作后继续读主库的时间窗口 (毫秒)，覆盖主从复制延迟
+    private static final long READ_STICKY_WINDOW = AppConfig.getLong("DB_READ_STICKY_MS", 5000);
+
+    // 连接池参数 (毫秒)，均可通过环境变量覆盖
+    private static final int POOL_MAX_SIZE = AppConfig.getInt("DB_POOL_MAX_SIZE", 20);
+    private static final int POOL_MIN_IDLE = AppConfig.getInt("DB_POOL_MIN_IDLE", 5);
+    private static final long CONNECTION_TIMEOUT = AppConfig.getLong("DB_POOL_CONNECTION_TIMEOUT_MS", 5000);
+    private static final long VALIDATION_TIMEOUT = AppConfig.getLong("DB_POOL_VALIDATION_TIMEOUT_MS", 3000);
+    private static final long IDLE_TIMEOUT = AppConfig.getLong("DB_POOL_IDLE_TIMEOUT_MS", 600000);
+    private static final long MAX_LIFETIME = AppConfig.getLong("DB_POOL_MAX_LIFETIME_MS", 1800000);
+
+    private static final HikariDataSource DATA_SOURCE;
+    private static final HikariDataSource READ_DATA_SOURCE;
+
+    // 用户标识 -> 最近一次写请求结束时间
+    private static final Map<String, Long> LAST_WRITE = new ConcurrentHashMap<>();
+    private static final int LAST_WRITE_MAX_SIZE = 10000;
+
     static {
         try {
             Class.forName("com.mysql.cj.jdbc.Driver");
@@ -25,10 +64,106 @@ public class DBUtil {
             e.printStackTrace();
             System.err.println("MySQL Driver not found!");
         }
+        DATA_SOURCE = createDataSource("mall-primary", URL, USER, PASSWORD);
+        READ_DATA_SOURCE = (READ_URL != null && !READ_URL.isEmpty()) ?
+            createDataSource("mall-replica", READ_URL, READ_USER, READ_PASSWORD) : null;
+    }
+
+    private static HikariDataSource createDataSource(String poolName, String url, String user, String password) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(poolName);
+        config.setJdbcUrl(url);
+        config.setUsername(user);
+        config.setPassword(password);
+
+        // 池大小与空闲回收
+        config.setMaximumPoolSize(POOL_MAX_SIZE);
+        config.setMinimumIdle(Math.min(POOL_MIN_IDLE, POOL_MAX_SIZE));
+        config.setIdleTimeout(IDLE_TIMEOUT);
+        config.setMaxLifetime(MAX_LIFETIME);
+
+        // 借出超时与借出时校验 (JDBC4 isValid)
+        config.setConnectionTimeout(CONNECTION_TIMEOUT);
+        config.setValidationTimeout(VALIDATION_TIMEOUT);
+
+        // 数据库暂不可用时也允许应用启动，与原先按需建连的行为一致
+        config.setInitializationFailTimeout(-1);
+
+        // MySQL 驱动侧的预编译语句缓存与批量改写
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "250");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        config.addDataSourceProperty("rewriteBatchedStatements", "true");
+
+        return new HikariDataSource(config);
     }
 
     public static Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(URL, USER, PASSWORD);
+        UnitOfWork uow = UnitOfWork.current();
+        if (uow != null) {
+            return uow.getConnection();
+        }
+        return DATA_SOURCE.getConnection();
+    }
+
+    /**
+     * 获取只读连接，用于只读 DAO 方法
+     * 未配置只读库，或当前请求需要读到自己的写入时，返回主库连接
+     */
+    public static Connection getReadConnection() throws SQLException {
+        if (READ_DATA_SOURCE == null) {
+            return getConnection();
+        }
+        UnitOfWork uow = UnitOfWork.current();
+        if (uow != null) {
+            return uow.prefersPrimary() ? uow.getConnection() : uow.getReadConnection();
+        }
+        return READ_DATA_SOURCE.getConnection();
+    }
+
+    /**
+     * 从主库连接池借出独立连接，不经过工作单元
+     * 用于需要在请求内自行分段提交的长任务 (如商品批量导入)，调用方负责事务和关闭
+     */
+    public static Connection getDedicatedConnection() throws SQLException {
+        return DATA_SOURCE.getConnection();
+    }
+
+    /**
+     * 借出独立的只读连接 (配置了只读库时走只读库)，不经过工作单元
+     * 用于流式结果集导出：流式读取期间连接不能执行其他语句，不能与请求内其他 DAO 共享
+     */
+    public static Connection getDedicatedReadConnection() throws SQLException {
+        return borrowReadConnection();
+    }
+
+    // 直接从连接池借出连接，不经过工作单元
+    static Connection borrowConnection() throws SQLException {
+        return DATA_SOURCE.getConnection();
+    }
+
+    static Connection borrowReadConnection() throws SQLException {
+        return READ_DATA_SOURCE != null ? READ_DATA_SOURCE.getConnection() : DATA_SOURCE.getConnection();
+    }
+
+    // 记录用户的写操作时间，开启 read-your-writes 窗口
+    static void recordWrite(String userKey) {
+        if (userKey == null || READ_DATA_SOURCE == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (LAST_WRITE.size() >= LAST_WRITE_MAX_SIZE) {
+            LAST_WRITE.values().removeIf(time -> now - time > READ_STICKY_WINDOW);
+        }
+        LAST_WRITE.put(userKey, now);
+    }
+
+    static boolean isWithinWriteWindow(String userKey) {
+        if (userKey == null) {
+            return false;
+        }
+        Long lastWrite = LAST_WRITE.get(userKey);
+        return lastWrite != null && System.currentTimeMillis() - lastWrite <= READ_STICKY_WINDOW;
     }
 
     public static void close(Connection conn) {
@@ -40,4 +175,19 @@ public class DBUtil {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 关闭连接池，由 AppLifecycleListener 在应用停止时调用
+     */
+    public static void shutdown() {
+        closeDataSource(READ_DATA_SOURCE);
+        closeDataSource(DATA_SOURCE);
+    }
+
+    private static void closeDataSource(HikariDataSource dataSource) {
+        if (dataSource != null && !dataSource.isClosed()) {
+            dataSource.close();
+            System.out.println("数据库连接池已关闭: " + dataSource.getPoolName());
+        }
+    }
+}
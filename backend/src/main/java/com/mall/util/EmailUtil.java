@@ -8,42 +8,31 @@ import java.util.Properties;
 
 /**
  * 邮件发送工具类 (用于订单确认、找回密码等)
+ * SMTP 参数从环境变量读取 (SMTP_HOST / SMTP_PORT / SMTP_USERNAME / SMTP_PASSWORD / SMTP_SSL / SMTP_AUTH / SMTP_FROM)，
+ * 本地测试时可指向 GreenMail 等 SMTP 替身，例如 SMTP_HOST=localhost SMTP_PORT=3025 SMTP_SSL=false SMTP_AUTH=false
  */
 public class EmailUtil {
 
-    // ⚠️ 替换为你的邮件服务提供商信息
-    private static final String HOST = "smtp.qq.com"; // 示例：QQ邮箱 SMTP
-    private static final String PORT = "465"; // SSL 端口
-    private static final String USERNAME = "244417287@qq.com"; // 你的邮箱账号
-    private static final String PASSWORD = "oydpftbtjadtcbcj"; //
+    // ⚠️ 替换为你的邮件服务提供商信息 (或通过环境变量覆盖)
+    private static final String HOST = AppConfig.getString("SMTP_HOST", "smtp.qq.com"); // 示例：QQ邮箱 SMTP
+    private static final String PORT = AppConfig.getString("SMTP_PORT", "465"); // SSL 端口
+    private static final String USERNAME = AppConfig.getString("SMTP_USERNAME", "244417287@qq.com"); // 你的邮箱账号
+    private static final String PASSWORD = AppConfig.getString("SMTP_PASSWORD", "oydpftbtjadtcbcj"); //
+    private static final boolean SSL = AppConfig.getBoolean("SMTP_SSL", true);
+    private static final boolean AUTH = AppConfig.getBoolean("SMTP_AUTH", true);
+    private static final String FROM = AppConfig.getString("SMTP_FROM", USERNAME);
 
+    /**
+     * 发送单封邮件 (每次新建 SMTP 连接)；批量发送请使用 createSession + 复用同一个 Transport
+     */
     public static void sendEmail(String toEmail, String subject, String content) {
 
-        // 1. 配置邮件会话属性
-        Properties props = new Properties();
-        props.put("mail.smtp.host", HOST);
-        props.put("mail.smtp.port", PORT);
-        props.put("mail.smtp.ssl.enable", "true"); // 启用 SSL
-        props.put("mail.smtp.auth", "true");
-
-        // 2. 创建会话
-        Session session = Session.getInstance(props, new Authenticator() {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(USERNAME, PASSWORD);
-            }
-        });
+        // 1~2. 配置邮件会话属性并创建会话
+        Session session = createSession();
 
         try {
             // 3. 构建邮件内容
-            Message message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(USERNAME)); // 发件人
-            message.setRecipients(
-                    Message.RecipientType.TO,
-                    InternetAddress.parse(toEmail) // 收件人
-            );
-            message.setSubject(subject); // 邮件主题
-            message.setText(content); // 邮件内容
+            Message message = createMessage(session, toEmail, subject, content);
 
             // 4. 发送邮件
             Transport.send(message);
@@ -55,4 +44,44 @@ public class EmailUtil {
             System.err.println("发送邮件失败: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 创建 SMTP 会话 (可在多封邮件、多次连接之间共享)
+     */
+    public static Session createSession() {
+        Properties props = new Properties();
+        props.put("mail.smtp.host", HOST);
+        props.put("mail.smtp.port", PORT);
+        props.put("mail.smtp.ssl.enable", String.valueOf(SSL)); // 启用 SSL
+        props.put("mail.smtp.auth", String.valueOf(AUTH));
+        // 避免 SMTP 服务器无响应时发送线程一直阻塞
+        props.put("mail.smtp.connectiontimeout", "10000");
+        props.put("mail.smtp.timeout", "30000");
+        props.put("mail.smtp.writetimeout", "30000");
+
+        if (!AUTH) {
+            return Session.getInstance(props);
+        }
+        return Session.getInstance(props, new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+                return new PasswordAuthentication(USERNAME, PASSWORD);
+            }
+        });
+    }
+
+    /**
+     * 构建纯文本邮件
+     */
+    public static Message createMessage(Session session, String toEmail, String subject, String content) throws MessagingException {
+        Message message = new MimeMessage(session);
+        message.setFrom(new InternetAddress(FROM)); // 发件人
+        message.setRecipients(
+                Message.RecipientType.TO,
+                InternetAddress.parse(toEmail) // 收件人
+        );
+        message.setSubject(subject); // 邮件主题
+        message.setText(content); // 邮件内容
+        return message;
+    }
+}
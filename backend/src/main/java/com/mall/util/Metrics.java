@@ -0,0 +1,50 @@
+package com.mall.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 进程内运行指标 (计数器 + 仪表)
+ * 计数器按名称累加；仪表在读取快照时实时计算 (如队列长度)
+ */
+public class Metrics {
+
+    private static final Map<String, AtomicLong> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Supplier<? extends Number>> GAUGES = new ConcurrentHashMap<>();
+
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    public static void add(String name, long delta) {
+        COUNTERS.computeIfAbsent(name, key -> new AtomicLong()).addAndGet(delta);
+    }
+
+    public static long get(String name) {
+        AtomicLong counter = COUNTERS.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    public static void registerGauge(String name, Supplier<? extends Number> gauge) {
+        GAUGES.put(name, gauge);
+    }
+
+    /**
+     * 获取所有指标的快照，按名称排序
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> snapshot.put(name, counter.get()));
+        GAUGES.forEach((name, gauge) -> {
+            try {
+                snapshot.put(name, gauge.get());
+            } catch (RuntimeException e) {
+                snapshot.put(name, null);
+            }
+        });
+        return snapshot;
+    }
+}
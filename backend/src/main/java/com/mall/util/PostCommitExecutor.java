@@ -0,0 +1,94 @@
+package com.mall.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 事务提交后的异步任务执行器 (通知、统计汇总等不影响响应的后续工作)
+ * 固定大小线程池 + 有界队列：突发下单时最多 POST_COMMIT_THREADS 个线程同时执行，
+ * 队列 (POST_COMMIT_QUEUE_SIZE) 满后拒绝新任务并计数，不会阻塞请求线程，也不会无限创建线程。
+ * 由 AppLifecycleListener 启动和关闭
+ */
+public class PostCommitExecutor {
+
+    private static final int THREADS = AppConfig.getInt("POST_COMMIT_THREADS", 4);
+    private static final int QUEUE_SIZE = AppConfig.getInt("POST_COMMIT_QUEUE_SIZE", 1000);
+    // 关闭时等待已排队任务完成的最长时间 (毫秒)
+    private static final long SHUTDOWN_TIMEOUT = AppConfig.getLong("POST_COMMIT_SHUTDOWN_TIMEOUT_MS", 10000);
+
+    // 构造函数用到上面的配置，必须在配置之后创建
+    private static final PostCommitExecutor INSTANCE = new PostCommitExecutor();
+
+    private final ThreadPoolExecutor executor;
+
+    private PostCommitExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "post-commit-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        Metrics.registerGauge("postCommit.queueDepth", () -> executor.getQueue().size());
+        Metrics.registerGauge("postCommit.activeThreads", executor::getActiveCount);
+        System.out.println("事务后异步任务执行器已启动，线程数: " + THREADS + "，队列容量: " + QUEUE_SIZE);
+    }
+
+    public static PostCommitExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 提交一个事务后任务 (只能在事务提交成功后调用)
+     * 任务异常只记录日志；队列已满或执行器已关闭时丢弃任务
+     * @param name 任务名称，用于日志
+     * @return 是否已接受
+     */
+    public boolean submit(String name, Runnable task) {
+        long submittedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long startedAt = System.nanoTime();
+                Metrics.add("postCommit.queueWaitMs", TimeUnit.NANOSECONDS.toMillis(startedAt - submittedAt));
+                try {
+                    task.run();
+                    Metrics.increment("postCommit.completed");
+                } catch (RuntimeException e) {
+                    Metrics.increment("postCommit.failed");
+                    System.err.println("[ERROR] 事务后任务执行失败: " + name);
+                    e.printStackTrace();
+                } finally {
+                    Metrics.add("postCommit.runMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+                }
+            });
+            Metrics.increment("postCommit.submitted");
+            return true;
+        } catch (RejectedExecutionException e) {
+            Metrics.increment("postCommit.rejected");
+            System.err.println("[WARN] 事务后任务队列已满或已关闭，丢弃任务: " + name);
+            return false;
+        }
+    }
+
+    /**
+     * 停止接受新任务，等待已排队的任务执行完 (超时后中断)
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                System.err.println("事务后任务未在 " + SHUTDOWN_TIMEOUT + "ms 内完成，强制停止，剩余 "
+                        + executor.getQueue().size() + " 个任务。");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
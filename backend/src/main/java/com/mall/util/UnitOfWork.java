@@ -0,0 +1,276 @@
+package com.mall.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 请求级工作单元 (Unit of Work)
+ * 由 UnitOfWorkFilter 在每个请求开始时绑定到当前线程，请求内所有 DAO 通过 DBUtil.getConnection()
+ * 拿到的是同一个连接 (首次使用时才从连接池借出)，请求结束时统一归还。
+ *
+ * 非事务模式：DAO 仍自行管理 autoCommit/commit/rollback，只是共享连接。
+ * 事务模式：整个请求是一个事务，DAO 内的 setAutoCommit/commit 被忽略，rollback() 仅标记回滚，
+ * 由 UnitOfWorkFilter 在请求结束时统一提交或回滚。DAO 的"提交后"动作 (缓存同步、通知等) 必须通过
+ * afterCommit / afterCompletion 注册，在真正提交之后才执行，回滚时丢弃。
+ */
+public class UnitOfWork {
+
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    private final boolean transactional;
+    private final boolean writeRequest; // 是否为写请求 (POST/PUT/DELETE)
+    private final String userKey;       // 当前用户标识，用于读写分离的 read-your-writes
+    private Connection physical;        // 从主库连接池借出的真实连接
+    private Connection shared;          // 交给 DAO 使用的代理连接
+    private Connection readPhysical;    // 从只读库连接池借出的真实连接
+    private Connection readShared;
+    private boolean rollbackOnly;
+    // 事务模式下延迟到请求结束时执行的动作，参数为是否已提交
+    private final List<Consumer<Boolean>> completionActions = new ArrayList<>();
+
+    private UnitOfWork(boolean transactional, boolean writeRequest, String userKey) {
+        this.transactional = transactional;
+        this.writeRequest = writeRequest;
+        this.userKey = userKey;
+    }
+
+    /**
+     * 在当前线程开启工作单元
+     * @param transactional 是否整个请求作为一个事务
+     * @param writeRequest 是否为写请求，写请求内的读操作也走主库，结束后该用户短时间内读主库
+     * @param userKey 当前用户标识，匿名请求为 null
+     */
+    public static UnitOfWork begin(boolean transactional, boolean writeRequest, String userKey) {
+        if (CURRENT.get() != null) {
+            throw new IllegalStateException("当前线程已绑定工作单元");
+        }
+        UnitOfWork uow = new UnitOfWork(transactional, writeRequest, userKey);
+        CURRENT.set(uow);
+        return uow;
+    }
+
+    /**
+     * 获取当前线程的工作单元，没有则返回 null
+     */
+    public static UnitOfWork current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 当前线程是否处于请求级事务中 (DAO 据此决定是否可以自行重试事务等)
+     */
+    public static boolean inTransaction() {
+        UnitOfWork uow = CURRENT.get();
+        return uow != null && uow.transactional;
+    }
+
+    /**
+     * 注册事务提交后执行的动作
+     * 当前处于请求级事务时延迟到请求提交成功后执行，回滚时不执行；否则 (DAO 已自行提交) 立即执行
+     */
+    public static void afterCommit(Runnable action) {
+        afterCompletion(committed -> {
+            if (committed) {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * 注册事务结束后执行的动作，参数为事务是否已提交 (用于提交时确认、回滚时撤销的内存状态，如库存预占)
+     * 当前处于请求级事务时延迟到请求结束时执行；否则立即以 true 执行
+     */
+    public static void afterCompletion(Consumer<Boolean> action) {
+        UnitOfWork uow = CURRENT.get();
+        if (uow != null && uow.transactional) {
+            uow.completionActions.add(action);
+        } else {
+            action.accept(true);
+        }
+    }
+
+    public boolean isTransactional() {
+        return transactional;
+    }
+
+    public void setRollbackOnly() {
+        this.rollbackOnly = true;
+    }
+
+    public boolean isRollbackOnly() {
+        return rollbackOnly;
+    }
+
+    /**
+     * 获取本工作单元共享的连接，首次调用时从连接池借出
+     */
+    Connection getConnection() throws SQLException {
+        if (shared == null) {
+            physical = DBUtil.borrowConnection();
+            if (transactional) {
+                physical.setAutoCommit(false);
+            }
+            shared = share(physical, transactional);
+        }
+        return shared;
+    }
+
+    /**
+     * 只读操作是否必须走主库：事务请求、写请求以及刚写过数据的用户
+     */
+    boolean prefersPrimary() {
+        return transactional || writeRequest || DBUtil.isWithinWriteWindow(userKey);
+    }
+
+    /**
+     * 获取本工作单元共享的只读库连接，首次调用时从只读库连接池借出
+     */
+    Connection getReadConnection() throws SQLException {
+        if (readShared == null) {
+            readPhysical = DBUtil.borrowReadConnection();
+            readShared = share(readPhysical, false);
+        }
+        return readShared;
+    }
+
+    private Connection share(Connection target, boolean interceptTransaction) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new SharedConnectionHandler(target, interceptTransaction));
+    }
+
+    /**
+     * 非事务模式下提前把当前工作单元已借出的连接归还连接池 (之后再使用时重新借出)
+     * 用于请求线程即将阻塞等待其他线程访问数据库的场景，避免等待期间占着连接导致连接池耗尽；事务模式下不做任何事
+     */
+    public static void releaseConnections() {
+        UnitOfWork uow = CURRENT.get();
+        if (uow == null || uow.transactional) {
+            return;
+        }
+        if (uow.readPhysical != null) {
+            DBUtil.close(uow.readPhysical);
+            uow.readPhysical = null;
+            uow.readShared = null;
+        }
+        if (uow.physical != null) {
+            uow.finishPhysical(true);
+        }
+    }
+
+    /**
+     * 结束工作单元：事务模式下提交或回滚，然后把连接归还连接池并解绑线程
+     * @param success 请求是否成功完成
+     */
+    public void end(boolean success) {
+        CURRENT.remove();
+        if (writeRequest) {
+            DBUtil.recordWrite(userKey);
+        }
+        if (readPhysical != null) {
+            DBUtil.close(readPhysical);
+            readPhysical = null;
+            readShared = null;
+        }
+        // 未借出过主库连接时没有需要提交的修改
+        boolean committed = success && !rollbackOnly;
+        try {
+            if (physical != null) {
+                committed = finishPhysical(success);
+            }
+        } finally {
+            // 连接已归还、线程已解绑，动作中再访问数据库会使用新的连接
+            runCompletionActions(committed);
+        }
+    }
+
+    // 提交或回滚主库连接并归还，返回是否已提交
+    private boolean finishPhysical(boolean success) {
+        boolean committed = false;
+        try {
+            if (transactional) {
+                if (success && !rollbackOnly) {
+                    physical.commit();
+                    committed = true;
+                } else {
+                    physical.rollback();
+                }
+            } else if (!physical.getAutoCommit()) {
+                // DAO 异常退出时未恢复 autoCommit，丢弃未提交的修改
+                physical.rollback();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            System.err.println("工作单元结束时提交/回滚失败: " + e.getMessage());
+        } finally {
+            try {
+                physical.setAutoCommit(true);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            DBUtil.close(physical);
+            physical = null;
+            shared = null;
+        }
+        return committed;
+    }
+
+    private void runCompletionActions(boolean committed) {
+        for (Consumer<Boolean> action : completionActions) {
+            try {
+                action.accept(committed);
+            } catch (RuntimeException e) {
+                System.err.println("事务结束后的动作执行失败: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        completionActions.clear();
+    }
+
+    /**
+     * 共享连接代理：close() 不归还连接；主库连接在事务模式下屏蔽 DAO 自己的事务边界
+     */
+    private class SharedConnectionHandler implements InvocationHandler {
+
+        private final Connection target;
+        private final boolean interceptTransaction;
+
+        SharedConnectionHandler(Connection target, boolean interceptTransaction) {
+            this.target = target;
+            this.interceptTransaction = interceptTransaction;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            int argCount = args == null ? 0 : args.length;
+
+            if (name.equals("close")) {
+                return null;
+            }
+            if (interceptTransaction) {
+                if (name.equals("setAutoCommit") || (name.equals("commit") && argCount == 0)) {
+                    return null;
+                }
+                if (name.equals("rollback") && argCount == 0) {
+                    rollbackOnly = true;
+                    return null;
+                }
+            }
+
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.mall.inventory;
+
+import com.mall.model.OrderItem;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class InventoryReservationsTest {
+
+    // 模拟数据库库存：商品ID -> stock_quantity
+    private final Map<Integer, Integer> database = new HashMap<>();
+    private int loads;
+    private boolean failLoads;
+    // 读数据库之前执行，模拟校准期间并发的下单
+    private Runnable duringLoad;
+
+    private final InventoryReservations reservations = new InventoryReservations(productIds -> {
+        loads++;
+        if (duringLoad != null) {
+            duringLoad.run();
+        }
+        if (failLoads) {
+            throw new SQLException("数据库不可用");
+        }
+        Map<Integer, Integer> stocks = new HashMap<>();
+        for (Integer productId : productIds) {
+            if (database.containsKey(productId)) {
+                stocks.put(productId, database.get(productId));
+            }
+        }
+        return stocks;
+    });
+
+    @Test
+    void reserveTakesStockUntilItRunsOut() {
+        database.put(1, 5);
+        assertNotNull(reservations.reserve(items(item(1, 3))));
+        assertNull(reservations.reserve(items(item(1, 3))));
+        assertNotNull(reservations.reserve(items(item(1, 2))));
+        assertNull(reservations.reserve(items(item(1, 1))));
+        // 计数器只在首次下单时加载一次
+        assertEquals(1, loads);
+    }
+
+    @Test
+    void repeatedItemsOfOneProductAreAddedUp() {
+        database.put(1, 5);
+        assertNull(reservations.reserve(items(item(1, 3), item(1, 3))));
+        assertNotNull(reservations.reserve(items(item(1, 2), item(1, 3))));
+    }
+
+    @Test
+    void failedReservationReturnsWhatItAlreadyTook() {
+        database.put(1, 5);
+        database.put(2, 1);
+        // 商品 1 先预占成功，商品 2 不足，整单失败时商品 1 的预占要回退
+        assertNull(reservations.reserve(items(item(2, 2), item(1, 5))));
+        assertNotNull(reservations.reserve(items(item(1, 5))));
+    }
+
+    @Test
+    void unknownProductIsRejected() {
+        database.put(1, 5);
+        assertNull(reservations.reserve(items(item(1, 1), item(99, 1))));
+        assertNotNull(reservations.reserve(items(item(1, 5))));
+    }
+
+    @Test
+    void releaseGivesStockBack() {
+        database.put(1, 5);
+        InventoryReservations.Reservation reservation = reservations.reserve(items(item(1, 4)));
+        reservations.release(reservation);
+        assertNotNull(reservations.reserve(items(item(1, 5))));
+    }
+
+    @Test
+    void reconcileKeepsUncommittedReservations() {
+        database.put(1, 10);
+        InventoryReservations.Reservation inFlight = reservations.reserve(items(item(1, 4)));
+        // 其他实例卖出 3 件：校准后可售 = 7 - 尚未提交的 4
+        database.put(1, 7);
+        reservations.reconcile();
+        assertNull(reservations.reserve(items(item(1, 4))));
+        assertNotNull(reservations.reserve(items(item(1, 3))));
+
+        // 事务失败，预占的 4 件回到可售
+        reservations.release(inFlight);
+        assertNotNull(reservations.reserve(items(item(1, 4))));
+    }
+
+    @Test
+    void confirmedReservationIsCountedFromTheDatabase() {
+        database.put(1, 10);
+        InventoryReservations.Reservation reservation = reservations.reserve(items(item(1, 4)));
+        // 事务提交，数据库库存已扣减
+        database.put(1, 6);
+        reservations.confirm(reservation);
+        reservations.reconcile();
+        assertNull(reservations.reserve(items(item(1, 7))));
+        assertNotNull(reservations.reserve(items(item(1, 6))));
+    }
+
+    @Test
+    void commitNotYetConfirmedIsNotSubtractedTwice() {
+        database.put(1, 10);
+        InventoryReservations.Reservation reservation = reservations.reserve(items(item(1, 4)));
+        // 事务已提交，数据库库存已扣减，但 afterCompletion 中的 confirm 还没执行
+        database.put(1, 6);
+        reservations.reconcile();
+        reservations.confirm(reservation);
+        assertNotNull(reservations.reserve(items(item(1, 6))));
+        assertNull(reservations.reserve(items(item(1, 1))));
+    }
+
+    @Test
+    void commitDuringReconcileIsCountedOnce() {
+        database.put(1, 10);
+        InventoryReservations.Reservation reservation = reservations.reserve(items(item(1, 4)));
+        duringLoad = () -> {
+            database.put(1, 6);
+            reservations.confirm(reservation);
+        };
+        reservations.reconcile();
+        duringLoad = null;
+        assertNull(reservations.reserve(items(item(1, 7))));
+        assertNotNull(reservations.reserve(items(item(1, 6))));
+    }
+
+    @Test
+    void reservationsDuringReconcileAreKept() {
+        database.put(1, 10);
+        InventoryReservations.Reservation first = reservations.reserve(items(item(1, 4)));
+        duringLoad = () -> {
+            reservations.release(first);
+            assertNotNull(reservations.reserve(items(item(1, 3))));
+        };
+        reservations.reconcile();
+        duringLoad = null;
+        // 数据库仍为 10，校准期间预占的 3 件不能被覆盖
+        assertNull(reservations.reserve(items(item(1, 8))));
+        assertNotNull(reservations.reserve(items(item(1, 7))));
+    }
+
+    @Test
+    void reconcileDropsDeletedProducts() {
+        database.put(1, 5);
+        assertNotNull(reservations.reserve(items(item(1, 1))));
+        database.remove(1);
+        reservations.reconcile();
+        assertNull(reservations.reserve(items(item(1, 1))));
+    }
+
+    @Test
+    void forgottenProductIsReloaded() {
+        database.put(1, 5);
+        assertNotNull(reservations.reserve(items(item(1, 5))));
+        // 管理员补货后丢弃计数器，下次下单重新加载
+        database.put(1, 8);
+        reservations.forget(1);
+        assertNotNull(reservations.reserve(items(item(1, 8))));
+        assertEquals(2, loads);
+    }
+
+    @Test
+    void loadFailureLetsTheDatabaseDecide() {
+        failLoads = true;
+        InventoryReservations.Reservation reservation = reservations.reserve(items(item(1, 100)));
+        assertNotNull(reservation);
+        // 未跟踪的预占，确认和释放都不影响计数器
+        reservations.release(reservation);
+        failLoads = false;
+        database.put(1, 1);
+        assertNull(reservations.reserve(items(item(1, 2))));
+    }
+
+    private static OrderItem item(int productId, int quantity) {
+        OrderItem item = new OrderItem();
+        item.setProductId(productId);
+        item.setQuantity(quantity);
+        return item;
+    }
+
+    private static List<OrderItem> items(OrderItem... items) {
+        return Arrays.asList(items);
+    }
+}
@@ -0,0 +1,102 @@
+package com.mall.search;
+
+import com.mall.model.Product;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProductSearchIndexTest {
+
+    private final ProductSearchIndex index = ProductSearchIndex.getInstance();
+
+    @BeforeEach
+    void setUp() {
+        index.rebuild(Arrays.asList(
+                product(1, "华为手机", "旗舰智能手机"),
+                product(2, "手机壳", "适用于华为手机的保护壳"),
+                product(3, "iPhone15 Pro", "苹果手机"),
+                product(4, "机械键盘", "青轴 RGB")));
+    }
+
+    @Test
+    void indexingSplitsCjkRunsIntoUnigramsAndBigrams() {
+        Map<String, Integer> terms = ProductSearchIndex.tokenize("华为手机", 1, false);
+        assertEquals(Arrays.asList("华", "为", "手", "机", "华为", "为手", "手机"), List.copyOf(terms.keySet()));
+    }
+
+    @Test
+    void multiCharacterQueryUsesOnlyBigrams() {
+        Map<String, Integer> terms = ProductSearchIndex.tokenize("华为手机", 1, true);
+        assertEquals(Arrays.asList("华为", "为手", "手机"), List.copyOf(terms.keySet()));
+    }
+
+    @Test
+    void singleCharacterQueryUsesTheUnigram() {
+        assertEquals(List.of("壳"), List.copyOf(ProductSearchIndex.tokenize("壳", 1, true).keySet()));
+    }
+
+    @Test
+    void latinWordsAreLowerCasedAndSplitFromCjk() {
+        Map<String, Integer> terms = ProductSearchIndex.tokenize("iPhone15 Pro手机", 2, true);
+        assertEquals(Arrays.asList("iphone15", "pro", "手机"), List.copyOf(terms.keySet()));
+        // 词频乘以权重，重复出现的词累加
+        assertEquals(4, ProductSearchIndex.tokenize("Pro pro", 2, false).get("pro"));
+    }
+
+    @Test
+    void nameMatchRanksAboveDescriptionMatch() {
+        ProductSearchIndex.SearchResult result = index.search("华为", 1, 10);
+        assertEquals(2, result.getTotal());
+        assertEquals(Arrays.asList(1, 2), result.getProductIds());
+    }
+
+    @Test
+    void queryMatchesAcrossScripts() {
+        ProductSearchIndex.SearchResult result = index.search("IPHONE15", 1, 10);
+        assertEquals(List.of(3), result.getProductIds());
+    }
+
+    @Test
+    void resultsArePagedAndTiesBreakByNewestId() {
+        // 三个商品描述中都含"手机"，各页不重叠
+        ProductSearchIndex.SearchResult first = index.search("手机", 1, 2);
+        ProductSearchIndex.SearchResult second = index.search("手机", 2, 2);
+        assertEquals(3, first.getTotal());
+        assertEquals(2, first.getProductIds().size());
+        assertEquals(1, second.getProductIds().size());
+        assertFalse(first.getProductIds().contains(second.getProductIds().get(0)));
+
+        index.rebuild(Arrays.asList(product(5, "鼠标", null), product(6, "鼠标", null)));
+        assertEquals(Arrays.asList(6, 5), index.search("鼠标", 1, 10).getProductIds());
+    }
+
+    @Test
+    void updatedAndRemovedProductsLeaveTheIndex() {
+        index.index(4, "无线鼠标", null);
+        assertTrue(index.search("键盘", 1, 10).getProductIds().isEmpty());
+        assertEquals(List.of(4), index.search("鼠标", 1, 10).getProductIds());
+
+        index.remove(4);
+        assertEquals(0, index.search("鼠标", 1, 10).getTotal());
+    }
+
+    @Test
+    void blankQueryMatchesNothing() {
+        assertEquals(0, index.search("  ,. ", 1, 10).getTotal());
+    }
+
+    private static Product product(int id, String name, String description) {
+        Product product = new Product();
+        product.setId(id);
+        product.setName(name);
+        product.setDescription(description);
+        return product;
+    }
+}
@@ -0,0 +1,38 @@
+package com.mall.stats;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamTicketsTest {
+
+    private final StreamTickets tickets = new StreamTickets();
+
+    @Test
+    void ticketCarriesTheIssuingUser() {
+        StreamTickets.Ticket ticket = tickets.redeem(tickets.issue("7", "admin", true));
+        assertNotNull(ticket);
+        assertEquals("7", ticket.getUserId());
+        assertEquals("admin", ticket.getUsername());
+        assertTrue(ticket.isAdmin());
+    }
+
+    @Test
+    void ticketCanBeRedeemedOnlyOnce() {
+        String ticket = tickets.issue("7", "admin", true);
+        assertNotNull(tickets.redeem(ticket));
+        // EventSource 自动重连带着同一张票据，必须被拒绝
+        assertNull(tickets.redeem(ticket));
+    }
+
+    @Test
+    void unknownTicketsAreRejected() {
+        assertNull(tickets.redeem(null));
+        assertNull(tickets.redeem("not-a-ticket"));
+        assertNotEquals(tickets.issue("7", "admin", true), tickets.issue("7", "admin", true));
+    }
+}
@@ -0,0 +1,207 @@
+package com.mall.stats;
+
+import com.mall.dao.StatsDAO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TopSellersTrackerTest {
+
+    private static final long MINUTE = 60 * 1000L;
+    private static final long BUCKET_MS = 10 * MINUTE;
+
+    private final FakeStatsDAO statsDAO = new FakeStatsDAO();
+    private final TopSellersTracker tracker = new TopSellersTracker(statsDAO);
+
+    @BeforeEach
+    void setUp() {
+        // 空数据库上完成首次重算，之后只由事件更新
+        tracker.recount();
+    }
+
+    @Test
+    void fullSketchEvictsTheSmallestCounterAndInheritsItsCount() {
+        TopSellersTracker.Sketch sketch = new TopSellersTracker.Sketch(3);
+        sketch.add(1, "a", 5, new BigDecimal("50"));
+        sketch.add(2, "b", 3, new BigDecimal("30"));
+        sketch.add(3, "c", 1, new BigDecimal("10"));
+        sketch.add(4, "d", 2, new BigDecimal("20"));
+
+        assertEquals(new HashSet<>(Arrays.asList(1, 2, 4)), sketch.counters.keySet());
+        // 继承被淘汰商品的计数：只会高估
+        assertEquals(3, sketch.counters.get(4).quantity);
+        assertEquals(0, new BigDecimal("30").compareTo(sketch.counters.get(4).revenue));
+    }
+
+    @Test
+    void evictionFollowsUpdatedCounts() {
+        TopSellersTracker.Sketch sketch = new TopSellersTracker.Sketch(3);
+        sketch.add(1, "a", 1, new BigDecimal("10"));
+        sketch.add(2, "b", 2, new BigDecimal("20"));
+        sketch.add(3, "c", 3, new BigDecimal("30"));
+        // 商品 1 变为最大，商品 2 成为最小
+        sketch.add(1, "a", 5, new BigDecimal("50"));
+        sketch.add(4, "d", 1, new BigDecimal("10"));
+
+        assertEquals(new HashSet<>(Arrays.asList(1, 3, 4)), sketch.counters.keySet());
+        assertEquals(3, sketch.counters.get(4).quantity);
+    }
+
+    @Test
+    void removingAnUntrackedProductIsIgnoredAndCountsNeverGoNegative() {
+        TopSellersTracker.Sketch sketch = new TopSellersTracker.Sketch(3);
+        sketch.add(1, "a", -2, new BigDecimal("-20"));
+        assertTrue(sketch.counters.isEmpty());
+
+        sketch.add(1, "a", 2, new BigDecimal("20"));
+        sketch.add(1, "a", -5, new BigDecimal("-50"));
+        assertEquals(0, sketch.counters.get(1).quantity);
+        assertEquals(0, BigDecimal.ZERO.compareTo(sketch.counters.get(1).revenue));
+    }
+
+    @Test
+    void topIsUnavailableUntilTheFirstRecount() {
+        TopSellersTracker fresh = new TopSellersTracker(new FakeStatsDAO());
+        assertNull(fresh.top(TopSellersTracker.Window.ALL, 10));
+        fresh.recount();
+        assertTrue(fresh.top(TopSellersTracker.Window.ALL, 10).isEmpty());
+    }
+
+    @Test
+    void windowsMergeOnlyTheirBuckets() {
+        long now = System.currentTimeMillis();
+        tracker.record(1, 10, "键盘", 2, new BigDecimal("20"), now);
+        tracker.record(2, 10, "键盘", 3, new BigDecimal("30"), now - 30 * MINUTE);
+        tracker.record(3, 20, "鼠标", 4, new BigDecimal("40"), now - 3 * 60 * MINUTE);
+        tracker.record(4, 30, "耳机", 9, new BigDecimal("90"), now - 8 * 24 * 60 * MINUTE);
+
+        List<Map<String, Object>> hour = tracker.top(TopSellersTracker.Window.HOUR, 10);
+        assertEquals(List.of(10), productIds(hour));
+        assertEquals(5, hour.get(0).get("totalSales"));
+        assertEquals(0, new BigDecimal("50").compareTo((BigDecimal) hour.get(0).get("totalRevenue")));
+
+        assertEquals(Arrays.asList(10, 20), productIds(tracker.top(TopSellersTracker.Window.DAY, 10)));
+        // 早于一周的订单只计入全部历史
+        assertEquals(Arrays.asList(10, 20), productIds(tracker.top(TopSellersTracker.Window.WEEK, 10)));
+        assertEquals(Arrays.asList(30, 10, 20), productIds(tracker.top(TopSellersTracker.Window.ALL, 10)));
+        assertEquals(List.of(30), productIds(tracker.top(TopSellersTracker.Window.ALL, 1)));
+    }
+
+    @Test
+    void cancelledOrderLeavesItsWindows() {
+        long now = System.currentTimeMillis();
+        tracker.record(1, 10, "键盘", 3, new BigDecimal("30"), now - 20 * MINUTE);
+        tracker.record(1, 10, "键盘", -3, new BigDecimal("-30"), now - 20 * MINUTE);
+
+        assertTrue(tracker.top(TopSellersTracker.Window.HOUR, 10).isEmpty());
+        assertTrue(tracker.top(TopSellersTracker.Window.ALL, 10).isEmpty());
+    }
+
+    @Test
+    void cachedWindowSeesLaterChangesToEarlierBuckets() {
+        long now = System.currentTimeMillis();
+        tracker.record(1, 10, "键盘", 3, new BigDecimal("30"), now - 20 * MINUTE);
+        tracker.record(2, 20, "鼠标", 1, new BigDecimal("10"), now);
+        assertEquals(Arrays.asList(10, 20), productIds(tracker.top(TopSellersTracker.Window.HOUR, 10)));
+
+        // 较早的订单在查询之后取消：被查询引用的历史桶写时复制，合并缓存失效
+        tracker.record(1, 10, "键盘", -3, new BigDecimal("-30"), now - 20 * MINUTE);
+        tracker.record(3, 20, "鼠标", 2, new BigDecimal("20"), now);
+        List<Map<String, Object>> hour = tracker.top(TopSellersTracker.Window.HOUR, 10);
+        assertEquals(List.of(20), productIds(hour));
+        assertEquals(3, hour.get(0).get("totalSales"));
+    }
+
+    @Test
+    void recountReplaysOnlyOrdersPastTheWatermark() {
+        long now = System.currentTimeMillis();
+        // 数据库中已有订单 1..5，商品 10 共卖出 2 件 (订单 5)
+        statsDAO.maxOrderId = 5;
+        statsDAO.allTime.add(row(10, 2, null));
+        statsDAO.buckets.add(row(10, 2, new Timestamp(now / BUCKET_MS * BUCKET_MS)));
+        // 查询期间收到的事件：订单 5 已包含在查询结果中，订单 6 在水位之后
+        statsDAO.duringQuery = () -> {
+            tracker.record(5, 10, "键盘", 2, new BigDecimal("20"), now);
+            tracker.record(6, 10, "键盘", 1, new BigDecimal("10"), now);
+        };
+        tracker.recount();
+
+        assertEquals(3, tracker.top(TopSellersTracker.Window.ALL, 10).get(0).get("totalSales"));
+        assertEquals(3, tracker.top(TopSellersTracker.Window.HOUR, 10).get(0).get("totalSales"));
+
+        // 重算结束后的事件直接计入
+        statsDAO.duringQuery = null;
+        tracker.record(7, 10, "键盘", 1, new BigDecimal("10"), now);
+        assertEquals(4, tracker.top(TopSellersTracker.Window.ALL, 10).get(0).get("totalSales"));
+    }
+
+    @Test
+    void failedRecountKeepsTheCurrentCounters() {
+        tracker.record(1, 10, "键盘", 2, new BigDecimal("20"), System.currentTimeMillis());
+        statsDAO.fail = true;
+        tracker.recount();
+        assertFalse(tracker.top(TopSellersTracker.Window.ALL, 10).isEmpty());
+    }
+
+    private static Map<String, Object> row(int productId, int totalSales, Timestamp bucketStart) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("productId", productId);
+        row.put("productName", "商品" + productId);
+        row.put("totalSales", totalSales);
+        row.put("totalRevenue", BigDecimal.TEN.multiply(BigDecimal.valueOf(totalSales)));
+        row.put("bucketStart", bucketStart);
+        return row;
+    }
+
+    private static List<Integer> productIds(List<Map<String, Object>> top) {
+        List<Integer> ids = new ArrayList<>();
+        for (Map<String, Object> product : top) {
+            ids.add((Integer) product.get("productId"));
+        }
+        return ids;
+    }
+
+    // 模拟数据库：返回预设的重算结果，可在查询期间插入事件
+    private static class FakeStatsDAO extends StatsDAO {
+        int maxOrderId;
+        final List<Map<String, Object>> allTime = new ArrayList<>();
+        final List<Map<String, Object>> buckets = new ArrayList<>();
+        Runnable duringQuery;
+        boolean fail;
+
+        @Override
+        public int getMaxOrderId() throws SQLException {
+            if (fail) {
+                throw new SQLException("数据库不可用");
+            }
+            return maxOrderId;
+        }
+
+        @Override
+        public List<Map<String, Object>> getTopSellingProducts(Timestamp since, int limit, Integer maxOrderId) {
+            if (duringQuery != null) {
+                duringQuery.run();
+            }
+            return allTime;
+        }
+
+        @Override
+        public List<Map<String, Object>> getProductSalesByBucket(Timestamp since, int bucketSeconds, int maxOrderId) {
+            return buckets;
+        }
+    }
+}
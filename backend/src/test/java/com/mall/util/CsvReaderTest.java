@@ -0,0 +1,69 @@
+package com.mall.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvReaderTest {
+
+    @Test
+    void plainFieldsAreSplitOnCommas() throws IOException {
+        CsvReader reader = reader("name,price,stock\n键盘,99.00,10\n");
+        assertEquals(Arrays.asList("name", "price", "stock"), reader.readRecord());
+        assertEquals(Arrays.asList("键盘", "99.00", "10"), reader.readRecord());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    void quotedFieldsKeepCommasAndEscapedQuotes() throws IOException {
+        CsvReader reader = reader("\"鼠标, 无线\",\"5\"\" 屏\",\"\"\n");
+        assertEquals(Arrays.asList("鼠标, 无线", "5\" 屏", ""), reader.readRecord());
+    }
+
+    @Test
+    void quotedFieldsMaySpanLines() throws IOException {
+        CsvReader reader = reader("a,\"第一行\n第二行\r\n第三行\",c\nnext,row\n");
+        assertEquals(Arrays.asList("a", "第一行\n第二行\r\n第三行", "c"), reader.readRecord());
+        assertEquals(1, reader.getRecordLineNumber());
+        assertEquals(Arrays.asList("next", "row"), reader.readRecord());
+        // 行号按原始输入计算，包含字段内的换行
+        assertEquals(4, reader.getRecordLineNumber());
+    }
+
+    @Test
+    void crlfLineEndingsAndMissingFinalNewline() throws IOException {
+        CsvReader reader = reader("a,b\r\nc,d");
+        assertEquals(Arrays.asList("a", "b"), reader.readRecord());
+        assertEquals(Arrays.asList("c", "d"), reader.readRecord());
+        assertEquals(2, reader.getRecordLineNumber());
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    void emptyLineIsASingleEmptyField() throws IOException {
+        CsvReader reader = reader("a\n\nb,\n");
+        assertEquals(List.of("a"), reader.readRecord());
+        assertEquals(List.of(""), reader.readRecord());
+        assertEquals(Arrays.asList("b", ""), reader.readRecord());
+    }
+
+    @Test
+    void unclosedQuoteReportsTheStartingLine() throws IOException {
+        CsvReader reader = reader("ok\n\"未闭合\n的字段");
+        reader.readRecord();
+        IOException e = assertThrows(IOException.class, reader::readRecord);
+        assertTrue(e.getMessage().contains("第 2 行"));
+    }
+
+    private static CsvReader reader(String input) {
+        return new CsvReader(new StringReader(input));
+    }
+}
@@ -100,7 +100,8 @@ export const api = {
     getUserOrders: () => request('GET', '/order', null, true),
     getOrderDetail: (id: number) => request('GET', `/order/${id}`, null, true),
     // 订单管理 (管理员)
-    getAllOrders: () => request('GET', '/order/all', null, true),
+    // 分页检索：cursor 为上一页返回的 nextCursor，第一页不传
+    searchOrders: (params: { limit?: number, cursor?: string, status?: string }) => request('GET', '/order/search', params, true),
     updateOrderStatus: (id: number, status: string) => request('PUT', `/order/${id}/status`, { status }, true),
     deleteOrder: (id: number) => request('DELETE', `/order/${id}`, null, true),
 
@@ -110,4 +111,10 @@ export const api = {
     getMonthlySales: (params: { year: string }) => request('GET', '/stats/monthly', params, true),
     getTopProducts: (params: { limit: number }) => request('GET', '/stats/top-products', params, true),
     getOrderStatusStats: () => request('GET', '/stats/status', null, true),
+    // 统计推送地址 (SSE)：EventSource 不能设置请求头，先用 Token 换取一次性票据，URL 中只带票据
+    getStatsStreamUrl: async () => {
+        const response = await request('POST', '/stats/stream/ticket', null, true);
+        if (!response.success || !response.data?.ticket) return null;
+        return `${API_BASE_URL}/stats/stream?ticket=${encodeURIComponent(response.data.ticket)}`;
+    },
 };
\ No newline at end of file